@@ -0,0 +1,204 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.request.CommandsRequest;
+import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.response.ReportResponse;
+import com.slaterama.airtime.persist.Checkpoint;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Kills a checkpointed session part way between two frontier snapshots,
+ * then resumes it from the checkpoint and checks that it still explores
+ * every room and reports the right message.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CheckpointResumeTest {
+
+   private static final String DIR = "checkpoint_resume_test";
+
+   /**
+    * The number of "commands" requests let through before the session is
+    * killed. Frontiers are checkpointed every ten responses, so this falls
+    * between the second and third snapshots.
+    */
+   private static final int KILL_AFTER = 25;
+
+   private static final long TIMEOUT_SECONDS = 60;
+
+   private static final Session.SessionListener LISTENER =
+       new Session.SessionListener() {
+          @Override
+          public void onSessionFinished(
+              @NonNull Session session,
+              @NonNull ReportResponse response) {
+          }
+       };
+
+   private File mDir;
+
+   private ExecutorService mDispatcher;
+
+   @Before
+   public void setUp() {
+      mDir = new File(
+          InstrumentationRegistry.getTargetContext().getCacheDir(), DIR);
+      deleteDir();
+      assertTrue(mDir.mkdirs());
+      mDispatcher = Executors.newCachedThreadPool();
+   }
+
+   @After
+   public void tearDown() {
+      mDispatcher.shutdown();
+      deleteDir();
+   }
+
+   @Test
+   public void resumesBetweenSnapshots() throws Exception {
+      SimulatedServer server = new SimulatedServer(7, 1000, 200, 20, 4);
+
+      // Run until the kill switch trips, then kill the session
+      KillSwitch killSwitch = new KillSwitch(server, KILL_AFTER);
+      Checkpoint killed = new Checkpoint(mDir);
+      final Session first = new Session(killSwitch, mDispatcher, LISTENER);
+      first.setCheckpoint(killed);
+      runOnMainSync(new Runnable() {
+         @Override
+         public void run() {
+            first.start();
+         }
+      });
+      assertTrue(killSwitch.mTripped.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      runOnMainSync(new Runnable() {
+         @Override
+         public void run() {
+            first.cancel();
+         }
+      });
+      killSwitch.mReleased.countDown();
+      assertTrue(first.awaitQuiescence(
+          TIMEOUT_SECONDS, TimeUnit.SECONDS) >= 0);
+      killed.close();
+      assertTrue(killed.exists());
+
+      // Resume from what made it into the checkpoint
+      final CountDownLatch finished = new CountDownLatch(1);
+      final String[] report = new String[1];
+      Checkpoint resumed = new Checkpoint(mDir);
+      final Session second = new Session(
+          server,
+          mDispatcher,
+          new Session.SessionListener() {
+             @Override
+             public void onSessionFinished(
+                 @NonNull Session session,
+                 @NonNull ReportResponse response) {
+                report[0] = response.getResponse();
+                finished.countDown();
+             }
+          });
+      second.setCheckpoint(resumed);
+      try {
+         runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+               second.start();
+            }
+         });
+         assertTrue("Resumed session didn't finish",
+             finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+         assertEquals("Correct", report[0]);
+         assertEquals(server.getRoomCount(), second.getRoomCount());
+         assertFalse(resumed.exists());
+      } finally {
+         second.cancel();
+         second.close();
+         resumed.close();
+      }
+   }
+
+   private static void runOnMainSync(@NonNull Runnable runnable) {
+      InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+   }
+
+   private void deleteDir() {
+      File[] files = mDir.listFiles();
+      if (files != null) {
+         for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+         }
+      }
+      //noinspection ResultOfMethodCallIgnored
+      mDir.delete();
+   }
+
+   /**
+    * Lets a number of "commands" requests through, then holds back every
+    * request until released, when they fail as if the process had died.
+    */
+   private static class KillSwitch implements Transport {
+
+      @NonNull
+      private final Transport mTransport;
+
+      private int mRemaining;
+
+      @NonNull
+      final CountDownLatch mTripped;
+
+      @NonNull
+      final CountDownLatch mReleased;
+
+      KillSwitch(@NonNull Transport transport, int commands) {
+         mTransport = transport;
+         mRemaining = commands;
+         mTripped = new CountDownLatch(1);
+         mReleased = new CountDownLatch(1);
+      }
+
+      @NonNull
+      @Override
+      public RawResponse send(@NonNull HttpRequest request)
+          throws IOException, JSONException {
+         if (!(request instanceof CommandsRequest) || letThrough()) {
+            return mTransport.send(request);
+         }
+         mTripped.countDown();
+         try {
+            mReleased.await();
+         } catch (InterruptedException e) {
+            // Fail either way
+         }
+         throw new IOException("Killed");
+      }
+
+      private synchronized boolean letThrough() {
+         if (mRemaining == 0) {
+            return false;
+         }
+         mRemaining--;
+         return true;
+      }
+   }
+}
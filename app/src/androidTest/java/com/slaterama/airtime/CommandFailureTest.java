@@ -0,0 +1,129 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.request.CommandsRequest;
+import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.response.ReportResponse;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Explores a simulated maze while the first "commands" request fails, and
+ * checks that the session still completes with the right message.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CommandFailureTest {
+
+   private static final long TIMEOUT_SECONDS = 60;
+
+   @Test
+   public void recoversFromFailedRequest() throws Exception {
+      explore(false);
+   }
+
+   @Test
+   public void recoversFromRejectedRequest() throws Exception {
+      explore(true);
+   }
+
+   private void explore(boolean reject) throws Exception {
+      SimulatedServer server = new SimulatedServer(1, 500, 100, 20, 4);
+      FailingTransport transport = new FailingTransport(server, reject);
+      ExecutorService dispatcher = Executors.newCachedThreadPool();
+      final CountDownLatch finished = new CountDownLatch(1);
+      final String[] report = new String[1];
+      final Session session = new Session(
+          transport,
+          dispatcher,
+          new Session.SessionListener() {
+             @Override
+             public void onSessionFinished(
+                 @NonNull Session session,
+                 @NonNull ReportResponse response) {
+                report[0] = response.getResponse();
+                finished.countDown();
+             }
+          });
+      try {
+         InstrumentationRegistry.getInstrumentation().runOnMainSync(
+             new Runnable() {
+                @Override
+                public void run() {
+                   session.start();
+                }
+             });
+         assertTrue("Session hung after a failed request",
+             finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+         assertTrue(transport.mFailures > 0);
+         assertEquals("Correct", report[0]);
+         assertEquals(server.getRoomCount(), session.getRoomCount());
+      } finally {
+         session.cancel();
+         session.close();
+         dispatcher.shutdown();
+      }
+   }
+
+   /**
+    * Fails the first "commands" request it sees: either once with an
+    * {@link IOException}, or by rejecting it with a 400 every time it is
+    * sent, so that it runs out of retries.
+    */
+   private static class FailingTransport implements Transport {
+
+      @NonNull
+      private final Transport mTransport;
+
+      private final boolean mReject;
+
+      private HttpRequest mFailing;
+
+      volatile int mFailures;
+
+      FailingTransport(@NonNull Transport transport, boolean reject) {
+         mTransport = transport;
+         mReject = reject;
+      }
+
+      @NonNull
+      @Override
+      public RawResponse send(@NonNull HttpRequest request)
+          throws IOException, JSONException {
+         if (request instanceof CommandsRequest && shouldFail(request)) {
+            if (mReject) {
+               return new RawResponse(
+                   HttpURLConnection.HTTP_BAD_REQUEST,
+                   "{\"error\":\"Rejected\"}");
+            }
+            throw new IOException("Connection reset");
+         }
+         return mTransport.send(request);
+      }
+
+      private synchronized boolean shouldFail(@NonNull HttpRequest request) {
+         if (mFailing == null) {
+            mFailing = request;
+         } else if (mFailing != request || !mReject) {
+            return false;
+         }
+         mFailures++;
+         return true;
+      }
+   }
+}
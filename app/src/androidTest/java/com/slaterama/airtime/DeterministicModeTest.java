@@ -0,0 +1,125 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.request.CommandsRequest;
+import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.response.ReportResponse;
+import com.slaterama.airtime.model.Command;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Explores the same simulated maze twice with the same seed, and checks
+ * that both runs send exactly the same commands in the same order.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeterministicModeTest {
+
+   private static final long SEED = 42L;
+   private static final long TIMEOUT_SECONDS = 60;
+
+   @Test
+   public void seededRunsSendTheSameCommands() throws Exception {
+      List<String> first = explore();
+      List<String> second = explore();
+      assertFalse(first.isEmpty());
+      assertEquals(first, second);
+   }
+
+   @NonNull
+   private List<String> explore() throws Exception {
+      SimulatedServer server = new SimulatedServer(3, 500, 100, 20, 4);
+      CommandLog transport = new CommandLog(server);
+      ExecutorService dispatcher = Executors.newCachedThreadPool();
+      final CountDownLatch finished = new CountDownLatch(1);
+      final String[] report = new String[1];
+      final Session session = new Session(
+          transport,
+          dispatcher,
+          new Session.SessionListener() {
+             @Override
+             public void onSessionFinished(
+                 @NonNull Session session,
+                 @NonNull ReportResponse response) {
+                report[0] = response.getResponse();
+                finished.countDown();
+             }
+          });
+      session.setDeterministic(SEED);
+      try {
+         InstrumentationRegistry.getInstrumentation().runOnMainSync(
+             new Runnable() {
+                @Override
+                public void run() {
+                   session.start();
+                }
+             });
+         assertTrue("Session didn't finish",
+             finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+         assertEquals("Correct", report[0]);
+         assertEquals(server.getRoomCount(), session.getRoomCount());
+         assertTrue(session.awaitQuiescence(
+             TIMEOUT_SECONDS, TimeUnit.SECONDS) >= 0);
+      } finally {
+         session.close();
+         dispatcher.shutdown();
+      }
+      return transport.getCommands();
+   }
+
+   /**
+    * Notes the drone and command id of every command sent, in the order
+    * they were sent.
+    */
+   private static class CommandLog implements Transport {
+
+      @NonNull
+      private final Transport mTransport;
+
+      @NonNull
+      private final List<String> mCommands;
+
+      CommandLog(@NonNull Transport transport) {
+         mTransport = transport;
+         mCommands = new ArrayList<>();
+      }
+
+      @NonNull
+      @Override
+      public RawResponse send(@NonNull HttpRequest request)
+          throws IOException, JSONException {
+         if (request instanceof CommandsRequest) {
+            CommandsRequest commandsRequest = (CommandsRequest) request;
+            synchronized (this) {
+               for (Command command : commandsRequest.getCommands()) {
+                  mCommands.add(commandsRequest.getDrone().getId()
+                      + ":" + command.getCommandId());
+               }
+            }
+         }
+         return mTransport.send(request);
+      }
+
+      @NonNull
+      synchronized List<String> getCommands() {
+         return new ArrayList<>(mCommands);
+      }
+   }
+}
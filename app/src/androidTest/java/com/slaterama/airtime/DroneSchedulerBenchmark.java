@@ -0,0 +1,98 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.slaterama.airtime.model.Command;
+import com.slaterama.airtime.model.Drone;
+import com.slaterama.airtime.model.Room;
+import com.slaterama.airtime.model.RoomTable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how long {@link DroneScheduler#distribute} takes to hand out
+ * the connections of a room with a very large fan-out.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DroneSchedulerBenchmark {
+
+   private static final String TAG =
+       DroneSchedulerBenchmark.class.getSimpleName();
+
+   private static final int DRONES = 16;
+   private static final int FAN_OUT = 20000;
+   private static final int ITERATIONS = 20;
+
+   private static final DroneTask.DroneTaskListener LISTENER =
+       new DroneTask.DroneTaskListener() {
+          @Override
+          public void onSendCommands(
+              @NonNull DroneTask task,
+              @NonNull List<Command> commands) {
+          }
+
+          @Override
+          public void onRoomClaimed(
+              @NonNull DroneTask task,
+              @NonNull Room room) {
+          }
+
+          @Override
+          public void onBlocked(@NonNull DroneTask task) {
+          }
+
+          @Override
+          public void onUnblocked(@NonNull DroneTask task) {
+          }
+
+          @Override
+          public void onFinished(@NonNull DroneTask task) {
+          }
+       };
+
+   @Test
+   public void distributeLargeFanOut() throws Exception {
+      long best = Long.MAX_VALUE;
+      for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+         DroneScheduler scheduler = new DroneScheduler();
+         List<DroneTask> tasks = new ArrayList<>(DRONES);
+         for (int i = 0; i < DRONES; i++) {
+            DroneTask task =
+                new DroneTask(new Drone("drone" + i), LISTENER, scheduler);
+            scheduler.register(task);
+            tasks.add(task);
+         }
+         RoomTable table = new RoomTable();
+         List<Room> rooms = new ArrayList<>(FAN_OUT);
+         for (int i = 0; i < FAN_OUT; i++) {
+            rooms.add(table.resolve("room" + i));
+         }
+
+         long start = System.nanoTime();
+         int assigned = scheduler.distribute(rooms);
+         best = Math.min(best, System.nanoTime() - start);
+
+         // Every room is handed out, evenly
+         assertEquals(FAN_OUT, assigned);
+         for (DroneTask task : tasks) {
+            assertEquals(FAN_OUT / DRONES, task.getFrontierSize());
+         }
+      }
+
+      Log.i(TAG, String.format(
+          Locale.US,
+          "distribute(%d rooms, %d drones): best %.3f ms",
+          FAN_OUT,
+          DRONES,
+          best / 1e6));
+   }
+}
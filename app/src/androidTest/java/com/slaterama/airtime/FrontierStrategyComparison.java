@@ -0,0 +1,103 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.slaterama.airtime.frontier.FrontierStrategy;
+import com.slaterama.airtime.http.response.ReportResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Explores the same simulated mazes with each {@link FrontierStrategy} and
+ * logs the commands sent per room and the time taken to complete.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrontierStrategyComparison {
+
+   private static final String TAG =
+       FrontierStrategyComparison.class.getSimpleName();
+
+   private static final long[] MAZE_SEEDS = { 1L, 2L, 3L };
+   private static final int ROOMS = 2000;
+   private static final int EXTRA_EDGES = 500;
+   private static final int WRITINGS = 40;
+   private static final int DRONES = 5;
+   private static final long LATENCY_MILLIS = 2;
+   private static final long TIMEOUT_SECONDS = 300;
+
+   @Test
+   public void compareStrategies() throws Exception {
+      ExecutorService dispatcher = Executors.newCachedThreadPool();
+      try {
+         for (long seed : MAZE_SEEDS) {
+            for (FrontierStrategy.Type type : FrontierStrategy.Type.values()) {
+               explore(dispatcher, seed, type);
+            }
+         }
+      } finally {
+         dispatcher.shutdown();
+      }
+   }
+
+   private void explore(
+       @NonNull ExecutorService dispatcher,
+       long seed,
+       @NonNull FrontierStrategy.Type type) throws Exception {
+      SimulatedServer server =
+          new SimulatedServer(seed, ROOMS, EXTRA_EDGES, WRITINGS, DRONES);
+      server.setLatencyMillis(LATENCY_MILLIS);
+
+      final CountDownLatch finished = new CountDownLatch(1);
+      final String[] report = new String[1];
+      final Session session = new Session(
+          server,
+          dispatcher,
+          new Session.SessionListener() {
+             @Override
+             public void onSessionFinished(
+                 @NonNull Session session,
+                 @NonNull ReportResponse response) {
+                report[0] = response.getResponse();
+                finished.countDown();
+             }
+          });
+      session.setFrontierType(type);
+
+      long start = System.nanoTime();
+      InstrumentationRegistry.getInstrumentation().runOnMainSync(
+          new Runnable() {
+             @Override
+             public void run() {
+                session.start();
+             }
+          });
+      boolean completed = finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      long elapsed = System.nanoTime() - start;
+      session.cancel();
+      session.close();
+
+      assertTrue(type + " timed out", completed);
+      assertEquals("Correct", report[0]);
+      assertEquals(server.getRoomCount(), session.getRoomCount());
+
+      Log.i(TAG, String.format(
+          Locale.US,
+          "maze %d, %s: %.3f commands/room, %d ms",
+          seed,
+          type,
+          session.getCommandCount() / (double) server.getRoomCount(),
+          TimeUnit.NANOSECONDS.toMillis(elapsed)));
+   }
+}
@@ -0,0 +1,239 @@
+package com.slaterama.airtime;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.slaterama.airtime.http.response.ReportResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Explores simulated mazes across a matrix of drone counts, batch sizes,
+ * server latencies and maze shapes, and writes one CSV row per run to
+ * {@value #CSV_NAME} in the target app's files directory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LoadTestHarness {
+
+   private static final String TAG = LoadTestHarness.class.getSimpleName();
+
+   private static final String CSV_NAME = "load_test.csv";
+   private static final String CSV_HEADER = "maze,drones,batch,latency_ms,"
+       + "wall_ms,requests,commands,duplicates,cpu_ms,peak_heap_kb";
+
+   private static final long SEED = 1L;
+   private static final int ROOMS = 500;
+   private static final int WRITINGS = 20;
+   private static final int[] DRONES = { 1, 2, 4, 8, 16 };
+   private static final int[] BATCH_SIZES = { 1, 3, DroneTask.BUFFER_SIZE };
+   private static final long[] LATENCIES_MILLIS = { 0, 10 };
+   private static final long HEAP_SAMPLE_MILLIS = 5;
+   private static final long TIMEOUT_SECONDS = 300;
+
+   /**
+    * The mazes each configuration explores.
+    */
+   private enum Maze {
+      TREE(SimulatedServer.Shape.BUSHY, 0),
+      CYCLIC(SimulatedServer.Shape.BUSHY, ROOMS / 2),
+      CORRIDOR(SimulatedServer.Shape.CORRIDOR, ROOMS / 10);
+
+      @NonNull
+      final SimulatedServer.Shape mShape;
+
+      final int mExtraEdges;
+
+      Maze(@NonNull SimulatedServer.Shape shape, int extraEdges) {
+         mShape = shape;
+         mExtraEdges = extraEdges;
+      }
+   }
+
+   @Test
+   public void loadTest() throws Exception {
+      File file = new File(
+          InstrumentationRegistry.getTargetContext().getFilesDir(), CSV_NAME);
+      ExecutorService dispatcher = Executors.newCachedThreadPool();
+      DroneExecutor droneExecutor = new DroneExecutor();
+      PrintWriter csv = new PrintWriter(new FileWriter(file));
+      try {
+         csv.println(CSV_HEADER);
+         for (Maze maze : Maze.values()) {
+            for (int drones : DRONES) {
+               for (int batchSize : BATCH_SIZES) {
+                  for (long latency : LATENCIES_MILLIS) {
+                     String row = run(
+                         dispatcher,
+                         droneExecutor,
+                         maze,
+                         drones,
+                         batchSize,
+                         latency);
+                     csv.println(row);
+                     Log.i(TAG, row);
+                  }
+               }
+            }
+         }
+      } finally {
+         csv.close();
+         droneExecutor.shutdownNow();
+         dispatcher.shutdown();
+      }
+      assertFalse(csv.checkError());
+      Log.i(TAG, "Wrote " + file);
+   }
+
+   @NonNull
+   private String run(
+       @NonNull ExecutorService dispatcher,
+       @NonNull DroneExecutor droneExecutor,
+       @NonNull Maze maze,
+       int drones,
+       int batchSize,
+       long latencyMillis) throws Exception {
+      SimulatedServer server = new SimulatedServer(
+          SEED, maze.mShape, ROOMS, maze.mExtraEdges, WRITINGS, drones);
+      server.setLatencyMillis(latencyMillis);
+
+      final CountDownLatch finished = new CountDownLatch(1);
+      final Session session = new Session(
+          server,
+          dispatcher,
+          new Session.SessionListener() {
+             @Override
+             public void onSessionFinished(
+                 @NonNull Session session,
+                 @NonNull ReportResponse response) {
+                finished.countDown();
+             }
+          });
+      session.setDroneExecutor(droneExecutor);
+      session.setBatchSize(batchSize);
+
+      System.gc();
+      HeapSampler sampler = new HeapSampler();
+      sampler.start();
+      long cpuStart = Process.getElapsedCpuTime();
+      long start = System.nanoTime();
+      runOnMainSync(new Runnable() {
+         @Override
+         public void run() {
+            session.start();
+         }
+      });
+      boolean completed = finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      long wallNanos = System.nanoTime() - start;
+      long cpuMillis = Process.getElapsedCpuTime() - cpuStart;
+      long peakHeap = sampler.finish();
+
+      // A finished session shuts itself down, so only one that timed out
+      // needs cancelling
+      final boolean cancel = !completed;
+      runOnMainSync(new Runnable() {
+         @Override
+         public void run() {
+            if (cancel) {
+               session.cancel();
+            }
+            session.close();
+         }
+      });
+      assertTrue(session.awaitQuiescence(
+          TIMEOUT_SECONDS, TimeUnit.SECONDS) >= 0);
+      String config = String.format(
+          Locale.US,
+          "%s, %d drones, batch %d, %d ms",
+          maze,
+          drones,
+          batchSize,
+          latencyMillis);
+      assertTrue(config + " timed out", completed);
+      assertEquals(config, server.getRoomCount(), session.getRoomCount());
+
+      int requests = 0;
+      int duplicates = 0;
+      for (DroneStats stats : session.getDroneStats()) {
+         requests += stats.getRequestsSent();
+         duplicates += stats.getDuplicateHits();
+      }
+      return String.format(
+          Locale.US,
+          "%s,%d,%d,%d,%d,%d,%d,%d,%d,%d",
+          maze,
+          drones,
+          batchSize,
+          latencyMillis,
+          TimeUnit.NANOSECONDS.toMillis(wallNanos),
+          requests,
+          session.getCommandCount(),
+          duplicates,
+          cpuMillis,
+          peakHeap / 1024);
+   }
+
+   private static void runOnMainSync(@NonNull Runnable runnable) {
+      InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+   }
+
+   /**
+    * Polls the heap in use until it is finished, and keeps the most seen.
+    */
+   private static class HeapSampler extends Thread {
+
+      private volatile boolean mFinished;
+
+      private long mPeak;
+
+      HeapSampler() {
+         super("Heap sampler");
+         setDaemon(true);
+      }
+
+      @Override
+      public void run() {
+         while (!mFinished) {
+            sample();
+            try {
+               Thread.sleep(HEAP_SAMPLE_MILLIS);
+            } catch (InterruptedException e) {
+               return;
+            }
+         }
+      }
+
+      private synchronized void sample() {
+         Runtime runtime = Runtime.getRuntime();
+         mPeak = Math.max(mPeak, runtime.totalMemory() - runtime.freeMemory());
+      }
+
+      /**
+       * Stops sampling.
+       * @return The peak heap in use, in bytes.
+       */
+      long finish() throws InterruptedException {
+         mFinished = true;
+         interrupt();
+         join();
+         sample();
+         synchronized (this) {
+            return mPeak;
+         }
+      }
+   }
+}
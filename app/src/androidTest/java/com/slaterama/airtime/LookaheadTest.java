@@ -0,0 +1,74 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.slaterama.airtime.http.response.ReportResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Explores a simulated maze with drones that wait for each room's
+ * connections, and with drones that batch several rooms ahead, and checks
+ * that both report the right message.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LookaheadTest {
+
+   private static final long TIMEOUT_SECONDS = 60;
+
+   @Test
+   public void exploresWithoutLookahead() throws Exception {
+      explore(1);
+   }
+
+   @Test
+   public void exploresWithLookahead() throws Exception {
+      explore(DroneTask.BUFFER_SIZE);
+   }
+
+   private void explore(int lookahead) throws Exception {
+      SimulatedServer server = new SimulatedServer(2, 500, 100, 20, 4);
+      ExecutorService dispatcher = Executors.newCachedThreadPool();
+      final CountDownLatch finished = new CountDownLatch(1);
+      final String[] report = new String[1];
+      final Session session = new Session(
+          server,
+          dispatcher,
+          new Session.SessionListener() {
+             @Override
+             public void onSessionFinished(
+                 @NonNull Session session,
+                 @NonNull ReportResponse response) {
+                report[0] = response.getResponse();
+                finished.countDown();
+             }
+          });
+      session.setLookahead(lookahead);
+      try {
+         InstrumentationRegistry.getInstrumentation().runOnMainSync(
+             new Runnable() {
+                @Override
+                public void run() {
+                   session.start();
+                }
+             });
+         assertTrue("Lookahead " + lookahead + " didn't finish",
+             finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+         assertEquals("Correct", report[0]);
+         assertEquals(server.getRoomCount(), session.getRoomCount());
+      } finally {
+         session.close();
+         dispatcher.shutdown();
+      }
+   }
+}
@@ -0,0 +1,146 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.request.ReportRequest;
+import com.slaterama.airtime.http.response.ReportResponse;
+import com.slaterama.airtime.trace.EventLog;
+import com.slaterama.airtime.trace.RecordingTransport;
+import com.slaterama.airtime.trace.ReplayTransport;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records a session against a simulated maze, then replays the recording
+ * in deterministic mode and checks that the replayed session explores the
+ * same rooms and reports the same message.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReplayTest {
+
+   private static final String EVENT_LOG_FILE = "replay_test.bin";
+   private static final long REPLAY_SEED = 0L;
+   private static final long TIMEOUT_SECONDS = 60;
+
+   @Test
+   public void replaysRecordedSession() throws Exception {
+      SimulatedServer server = new SimulatedServer(5, 500, 100, 20, 4);
+      File file = new File(
+          InstrumentationRegistry.getTargetContext().getCacheDir(),
+          EVENT_LOG_FILE);
+      ExecutorService dispatcher = Executors.newCachedThreadPool();
+      try {
+         // Record
+         EventLog eventLog = new EventLog(file);
+         Report recordedReport = new Report();
+         Session recorded = new Session(
+             new RecordingTransport(server, eventLog),
+             dispatcher,
+             recordedReport);
+         recorded.setEventLog(eventLog);
+         assertEquals("Correct", explore(recorded, recordedReport));
+         assertEquals(server.getRoomCount(), recorded.getRoomCount());
+
+         // Replay
+         ReportProbe probe = new ReportProbe(
+             new ReplayTransport(EventLog.read(file)));
+         Report replayedReport = new Report();
+         Session replayed = new Session(probe, dispatcher, replayedReport);
+         replayed.setDeterministic(REPLAY_SEED);
+         assertEquals("Correct", explore(replayed, replayedReport));
+         assertEquals(server.getRoomCount(), replayed.getRoomCount());
+         assertEquals(server.getMessage(), probe.mMessage);
+      } finally {
+         dispatcher.shutdown();
+         //noinspection ResultOfMethodCallIgnored
+         file.delete();
+      }
+   }
+
+   /**
+    * Runs a session to the end.
+    * @param session The session.
+    * @param report The session's listener.
+    * @return The server's response to the report.
+    */
+   private static String explore(
+       @NonNull final Session session,
+       @NonNull Report report) throws InterruptedException {
+      try {
+         InstrumentationRegistry.getInstrumentation().runOnMainSync(
+             new Runnable() {
+                @Override
+                public void run() {
+                   session.start();
+                }
+             });
+         assertTrue("Session didn't finish",
+             report.mFinished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+         assertTrue(session.awaitQuiescence(
+             TIMEOUT_SECONDS, TimeUnit.SECONDS) >= 0);
+      } finally {
+         session.close();
+      }
+      return report.mResponse;
+   }
+
+   /**
+    * Notes the server's response to the report.
+    */
+   private static class Report implements Session.SessionListener {
+
+      @NonNull
+      final CountDownLatch mFinished = new CountDownLatch(1);
+
+      volatile String mResponse;
+
+      @Override
+      public void onSessionFinished(
+          @NonNull Session session,
+          @NonNull ReportResponse response) {
+         mResponse = response.getResponse();
+         mFinished.countDown();
+      }
+   }
+
+   /**
+    * Notes the message sent with the "report" request.
+    */
+   private static class ReportProbe implements Transport {
+
+      @NonNull
+      private final Transport mTransport;
+
+      volatile String mMessage;
+
+      ReportProbe(@NonNull Transport transport) {
+         mTransport = transport;
+      }
+
+      @NonNull
+      @Override
+      public RawResponse send(@NonNull HttpRequest request)
+          throws IOException, JSONException {
+         if (request instanceof ReportRequest) {
+            mMessage = ((ReportRequest) request).getMessage();
+         }
+         return mTransport.send(request);
+      }
+   }
+}
@@ -0,0 +1,86 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.slaterama.airtime.http.response.ReportResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cancels sessions part way through exploring a simulated maze, and
+ * measures how long each takes to quiesce.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SessionCancellationTest {
+
+   private static final String TAG =
+       SessionCancellationTest.class.getSimpleName();
+
+   private static final int RUNS = 5;
+   private static final long RUN_MILLIS = 500;
+   private static final long LATENCY_MILLIS = 20;
+   private static final long TIMEOUT_SECONDS = 10;
+
+   private static final Session.SessionListener LISTENER =
+       new Session.SessionListener() {
+          @Override
+          public void onSessionFinished(
+              @NonNull Session session,
+              @NonNull ReportResponse response) {
+          }
+       };
+
+   @Test
+   public void cancelQuiesces() throws Exception {
+      ExecutorService dispatcher = Executors.newCachedThreadPool();
+      try {
+         for (int run = 0; run < RUNS; run++) {
+            SimulatedServer server =
+                new SimulatedServer(run, 5000, 1000, 20, 8);
+            server.setLatencyMillis(LATENCY_MILLIS);
+            final Session session = new Session(server, dispatcher, LISTENER);
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                new Runnable() {
+                   @Override
+                   public void run() {
+                      session.start();
+                   }
+                });
+            Thread.sleep(RUN_MILLIS);
+
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                new Runnable() {
+                   @Override
+                   public void run() {
+                      session.cancel();
+                      session.close();
+                   }
+                });
+            long nanos =
+                session.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            assertTrue("Run " + run + " didn't quiesce", nanos >= 0);
+            assertFalse(session.isFinished());
+            Log.i(TAG, String.format(
+                Locale.US,
+                "run %d: quiesced in %.3f ms after %d rooms",
+                run,
+                nanos / 1e6,
+                session.getRoomCount()));
+         }
+      } finally {
+         dispatcher.shutdown();
+      }
+   }
+}
@@ -0,0 +1,258 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.request.CommandsRequest;
+import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.request.ReportRequest;
+import com.slaterama.airtime.http.request.StartRequest;
+import com.slaterama.airtime.model.Command;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A {@link Transport} that answers requests from a randomly generated maze
+ * held in memory instead of sending them to the real server. The same seed
+ * always generates the same maze.
+ */
+public class SimulatedServer implements Transport {
+
+   private static final String ROOM_PREFIX = "room";
+   private static final String DRONE_PREFIX = "drone";
+
+   /**
+    * How far back a {@link Shape#CORRIDOR} room may attach to.
+    */
+   private static final int CORRIDOR_REACH = 3;
+
+   /**
+    * The shape of the spanning tree the maze is built on.
+    */
+   public enum Shape {
+      /**
+       * Each room attaches to any earlier room, which gives a shallow tree
+       * with a wide frontier.
+       */
+      BUSHY,
+
+      /**
+       * Each room attaches to one of the last few rooms, which gives a
+       * deep tree with a narrow frontier.
+       */
+      CORRIDOR
+   }
+
+   /**
+    * The rooms connected to each room, by room index.
+    */
+   @NonNull
+   private final List<Set<Integer>> mConnections;
+
+   /**
+    * The order of each room's writing, or -1 if it has none.
+    */
+   @NonNull
+   private final int[] mOrders;
+
+   /**
+    * The message the writings spell out, in order.
+    */
+   @NonNull
+   private final String mMessage;
+
+   private final int mDroneCount;
+
+   /**
+    * How long each request takes to answer.
+    */
+   private volatile long mLatencyMillis;
+
+   /**
+    * @param seed The seed the maze is generated from.
+    * @param roomCount The number of rooms.
+    * @param extraEdges The number of connections added on top of a
+    *                   spanning tree, which create cycles.
+    * @param writingCount The number of rooms with valid writing.
+    * @param droneCount The number of drones handed out.
+    */
+   public SimulatedServer(
+       long seed,
+       int roomCount,
+       int extraEdges,
+       int writingCount,
+       int droneCount) {
+      this(seed, Shape.BUSHY, roomCount, extraEdges, writingCount, droneCount);
+   }
+
+   /**
+    * @param seed The seed the maze is generated from.
+    * @param shape The shape of the spanning tree.
+    * @param roomCount The number of rooms.
+    * @param extraEdges The number of connections added on top of a
+    *                   spanning tree, which create cycles.
+    * @param writingCount The number of rooms with valid writing.
+    * @param droneCount The number of drones handed out.
+    */
+   public SimulatedServer(
+       long seed,
+       @NonNull Shape shape,
+       int roomCount,
+       int extraEdges,
+       int writingCount,
+       int droneCount) {
+      Random random = new Random(seed);
+      mDroneCount = droneCount;
+
+      mConnections = new ArrayList<>(roomCount);
+      for (int i = 0; i < roomCount; i++) {
+         mConnections.add(new HashSet<Integer>());
+      }
+      for (int i = 1; i < roomCount; i++) {
+         if (shape == Shape.CORRIDOR) {
+            connect(i, i - 1 - random.nextInt(Math.min(i, CORRIDOR_REACH)));
+         } else {
+            connect(i, random.nextInt(i));
+         }
+      }
+      for (int i = 0; i < extraEdges; i++) {
+         int a = random.nextInt(roomCount);
+         int b = random.nextInt(roomCount);
+         if (a != b) {
+            connect(a, b);
+         }
+      }
+
+      mOrders = new int[roomCount];
+      List<Integer> indices = new ArrayList<>(roomCount);
+      for (int i = 0; i < roomCount; i++) {
+         mOrders[i] = -1;
+         indices.add(i);
+      }
+      Collections.shuffle(indices, random);
+      StringBuilder message = new StringBuilder();
+      for (int order = 0; order < Math.min(writingCount, roomCount); order++) {
+         mOrders[indices.get(order)] = order;
+         message.append(getText(order));
+      }
+      mMessage = message.toString();
+   }
+
+   /**
+    * Returns the message a correct report contains.
+    * @return The message.
+    */
+   @NonNull
+   public String getMessage() {
+      return mMessage;
+   }
+
+   public int getRoomCount() {
+      return mOrders.length;
+   }
+
+   /**
+    * Sets how long each request takes to answer.
+    * @param latencyMillis The latency, in milliseconds.
+    */
+   public void setLatencyMillis(long latencyMillis) {
+      mLatencyMillis = latencyMillis;
+   }
+
+   @NonNull
+   @Override
+   public RawResponse send(@NonNull HttpRequest request)
+       throws IOException, JSONException {
+      if (mLatencyMillis > 0) {
+         try {
+            Thread.sleep(mLatencyMillis);
+         } catch (InterruptedException e) {
+            throw new IOException(e);
+         }
+      }
+
+      JSONObject obj = new JSONObject();
+      if (request instanceof StartRequest) {
+         JSONArray drones = new JSONArray();
+         for (int i = 0; i < mDroneCount; i++) {
+            drones.put(DRONE_PREFIX + i);
+         }
+         obj.put("roomId", getRoomId(0));
+         obj.put("drones", drones);
+      } else if (request instanceof CommandsRequest) {
+         for (Command command : ((CommandsRequest) request).getCommands()) {
+            obj.put(command.getCommandId(), getResult(command));
+         }
+      } else if (request instanceof ReportRequest) {
+         String message = ((ReportRequest) request).getMessage();
+         obj.put("response", mMessage.equals(message)
+             ? "Correct"
+             : "Incorrect: " + message);
+      } else {
+         return new RawResponse(HttpURLConnection.HTTP_NOT_FOUND, null);
+      }
+      return new RawResponse(HttpURLConnection.HTTP_OK, obj.toString());
+   }
+
+   @NonNull
+   private JSONObject getResult(@NonNull Command command)
+       throws JSONException {
+      JSONObject result = new JSONObject();
+      int index = getRoomIndex(command.getRoomId());
+      if (index < 0) {
+         result.put("error", "Unknown room " + command.getRoomId());
+      } else if (Command.EXPLORE.equals(command.getName())) {
+         JSONArray connections = new JSONArray();
+         for (int connection : mConnections.get(index)) {
+            connections.put(getRoomId(connection));
+         }
+         result.put("connections", connections);
+      } else if (Command.READ.equals(command.getName())) {
+         int order = mOrders[index];
+         result.put("writing", order < 0 ? "" : getText(order));
+         result.put("order", order);
+      } else {
+         result.put("error", "Unknown command " + command.getName());
+      }
+      return result;
+   }
+
+   private void connect(int a, int b) {
+      mConnections.get(a).add(b);
+      mConnections.get(b).add(a);
+   }
+
+   private int getRoomIndex(@NonNull String roomId) {
+      if (!roomId.startsWith(ROOM_PREFIX)) {
+         return -1;
+      }
+      try {
+         int index = Integer.parseInt(roomId.substring(ROOM_PREFIX.length()));
+         return (index >= 0 && index < mOrders.length ? index : -1);
+      } catch (NumberFormatException e) {
+         return -1;
+      }
+   }
+
+   @NonNull
+   private static String getRoomId(int index) {
+      return ROOM_PREFIX + index;
+   }
+
+   @NonNull
+   private static String getText(int order) {
+      return String.valueOf((char) ('a' + order % 26));
+   }
+}
@@ -0,0 +1,158 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.request.CommandsRequest;
+import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.request.StartRequest;
+import com.slaterama.airtime.http.response.ReportResponse;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time from the "start" response to the first "commands"
+ * request on the wire, with drones on threads created for each session,
+ * with drones on a shared, warm {@link DroneExecutor}, and with the start
+ * room sent for before the drones start.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupLatencyBenchmark {
+
+   private static final String TAG =
+       StartupLatencyBenchmark.class.getSimpleName();
+
+   private static final int ITERATIONS = 20;
+   private static final int DRONES = 16;
+   private static final long TIMEOUT_SECONDS = 10;
+
+   private static final Session.SessionListener LISTENER =
+       new Session.SessionListener() {
+          @Override
+          public void onSessionFinished(
+              @NonNull Session session,
+              @NonNull ReportResponse response) {
+          }
+       };
+
+   @Test
+   public void startupLatency() throws Exception {
+      ExecutorService dispatcher = Executors.newCachedThreadPool();
+      DroneExecutor shared = new DroneExecutor();
+      try {
+         report("fresh threads", measure(dispatcher, null, false));
+         report("shared executor", measure(dispatcher, shared, false));
+         report("warm start", measure(dispatcher, shared, true));
+      } finally {
+         shared.shutdownNow();
+         dispatcher.shutdown();
+      }
+   }
+
+   @NonNull
+   private long[] measure(
+       @NonNull ExecutorService dispatcher,
+       DroneExecutor executor,
+       boolean warmStart) throws Exception {
+      long[] latencies = new long[ITERATIONS];
+      for (int i = 0; i < ITERATIONS; i++) {
+         FirstCommandsProbe probe = new FirstCommandsProbe(
+             new SimulatedServer(i, 1000, 200, 10, DRONES));
+         final Session session = new Session(probe, dispatcher, LISTENER);
+         session.setDroneExecutor(executor);
+         session.setWarmStart(warmStart);
+         runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+               session.start();
+            }
+         });
+
+         assertTrue(probe.mFirstCommands.await(
+             TIMEOUT_SECONDS, TimeUnit.SECONDS));
+         latencies[i] = probe.mFirstCommandsNanos - probe.mStartNanos;
+
+         runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+               session.cancel();
+               session.close();
+            }
+         });
+         assertTrue(session.awaitQuiescence(
+             TIMEOUT_SECONDS, TimeUnit.SECONDS) >= 0);
+      }
+      return latencies;
+   }
+
+   private static void runOnMainSync(@NonNull Runnable runnable) {
+      InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+   }
+
+   private static void report(@NonNull String name, @NonNull long[] nanos) {
+      Arrays.sort(nanos);
+      Log.i(TAG, String.format(
+          Locale.US,
+          "%s: start to first commands median %.3f ms, best %.3f ms",
+          name,
+          nanos[nanos.length / 2] / 1e6,
+          nanos[0] / 1e6));
+   }
+
+   /**
+    * Records when the "start" response comes back and when the first
+    * "commands" request goes out.
+    */
+   private static class FirstCommandsProbe implements Transport {
+
+      @NonNull
+      private final Transport mTransport;
+
+      @NonNull
+      final CountDownLatch mFirstCommands;
+
+      volatile long mStartNanos;
+
+      volatile long mFirstCommandsNanos;
+
+      FirstCommandsProbe(@NonNull Transport transport) {
+         mTransport = transport;
+         mFirstCommands = new CountDownLatch(1);
+      }
+
+      @NonNull
+      @Override
+      public RawResponse send(@NonNull HttpRequest request)
+          throws IOException, JSONException {
+         if (request instanceof CommandsRequest) {
+            synchronized (this) {
+               if (mFirstCommands.getCount() > 0) {
+                  mFirstCommandsNanos = System.nanoTime();
+                  mFirstCommands.countDown();
+               }
+            }
+         }
+         RawResponse response = mTransport.send(request);
+         if (request instanceof StartRequest) {
+            mStartNanos = System.nanoTime();
+         }
+         return response;
+      }
+   }
+}
@@ -0,0 +1,75 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads {@link DroneTask}s run on. A drone blocks its thread while it
+ * waits for results, so every drone needs a thread of its own: the pool
+ * grows to however many drones are running and never queues a task.
+ * <p>
+ * A number of threads are kept warm between sessions, so that a session
+ * doesn't pay for creating them when it starts. Extra threads die once
+ * they have been idle for a while.
+ */
+public class DroneExecutor extends ThreadPoolExecutor {
+
+   /**
+    * How long a thread beyond the warm ones may be idle before it dies.
+    */
+   private static final long KEEP_ALIVE_SECONDS = 60;
+
+   /**
+    * The most threads kept warm, however many drones a session has had.
+    */
+   private static final int MAX_WARM_THREADS = 32;
+
+   private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+      private final AtomicInteger mCount = new AtomicInteger();
+
+      @Override
+      public Thread newThread(@NonNull Runnable runnable) {
+         return new Thread(runnable, "Drone #" + mCount.incrementAndGet());
+      }
+   };
+
+   /**
+    * Creates an executor that keeps one thread per processor warm.
+    */
+   public DroneExecutor() {
+      this(Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * @param warmThreads The number of threads to start now and keep warm.
+    */
+   public DroneExecutor(int warmThreads) {
+      super(
+          warmThreads,
+          Integer.MAX_VALUE,
+          KEEP_ALIVE_SECONDS,
+          TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(),
+          THREAD_FACTORY);
+      prestartAllCoreThreads();
+   }
+
+   /**
+    * Keeps enough threads warm for a session with the given number of
+    * drones (up to {@link #MAX_WARM_THREADS}), starting any that are
+    * missing now rather than when the drones are executed.
+    * @param droneCount The number of drones.
+    */
+   public void reserve(int droneCount) {
+      int warm = Math.min(droneCount, MAX_WARM_THREADS);
+      if (warm > getCorePoolSize()) {
+         setCorePoolSize(warm);
+      }
+      prestartAllCoreThreads();
+   }
+}
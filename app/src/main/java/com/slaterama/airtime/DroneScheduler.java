@@ -0,0 +1,366 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.model.Room;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Partitions the maze among the drones as it is discovered. Every newly
+ * discovered room is assigned to exactly one drone (the least loaded one at
+ * the time), and a drone that runs out of rooms takes half of the busiest
+ * drone's frontier. Exploration is complete once every drone is idle.
+ * <p>
+ * The scheduler also holds the queue of explored rooms that are waiting
+ * to be read by {@link DroneTask.Role#READER} drones.
+ * <p>
+ * When skipping resolved rooms, rooms that are already fully resolved
+ * (i.e. preloaded from the room cache) are never handed to a drone.
+ * Instead the scheduler walks the known graph through them and hands out
+ * the nearest rooms that still need querying, so drones don't re-walk
+ * regions that are already known.
+ */
+public class DroneScheduler {
+
+   /**
+    * The drone tasks taking part in exploration.
+    */
+   @NonNull
+   private final List<DroneTask> mTasks;
+
+   /**
+    * The number of registered drone tasks that are not idle.
+    */
+   @NonNull
+   private final AtomicInteger mActive;
+
+   /**
+    * Rooms waiting to be read by a reader drone.
+    */
+   @NonNull
+   private final Deque<Room> mUnread;
+
+   /**
+    * Guards {@link #mUnread}.
+    */
+   @NonNull
+   private final ReentrantLock mUnreadLock;
+
+   /**
+    * Signalled when rooms are added to {@link #mUnread} or exploration
+    * completes.
+    */
+   @NonNull
+   private final Condition mUnreadChanged;
+
+   /**
+    * Whether resolved rooms are walked through rather than handed out.
+    */
+   private volatile boolean mSkipResolved;
+
+   /**
+    * The number of resolved rooms walked through rather than handed out.
+    */
+   @NonNull
+   private final AtomicInteger mSkipped;
+
+   public DroneScheduler() {
+      mTasks = new CopyOnWriteArrayList<>();
+      mActive = new AtomicInteger();
+      mUnread = new LinkedList<>();
+      mUnreadLock = new ReentrantLock();
+      mUnreadChanged = mUnreadLock.newCondition();
+      mSkipped = new AtomicInteger();
+   }
+
+   /**
+    * Sets whether resolved rooms are walked through rather than handed out
+    * to drones.
+    * @param skipResolved Whether to skip resolved rooms.
+    */
+   public void setSkipResolved(boolean skipResolved) {
+      mSkipResolved = skipResolved;
+   }
+
+   /**
+    * Returns the number of resolved rooms that were walked through rather
+    * than handed out to a drone.
+    * @return The number of rooms skipped.
+    */
+   public int getSkippedCount() {
+      return mSkipped.get();
+   }
+
+   /**
+    * Adds an exploring drone task to the pool of drones that rooms are
+    * assigned to. Registered tasks start out active. Reader drones are not
+    * registered.
+    * @param task The drone task.
+    */
+   public void register(@NonNull DroneTask task) {
+      mTasks.add(task);
+      mActive.incrementAndGet();
+   }
+
+   /**
+    * Removes a drone task that has finished.
+    * @param task The drone task.
+    */
+   public void unregister(@NonNull DroneTask task) {
+      mTasks.remove(task);
+   }
+
+   /**
+    * Removes all drone tasks, and wakes any reader waiting for rooms so it
+    * can see there are none left.
+    */
+   public void clear() {
+      mTasks.clear();
+      mActive.set(0);
+      mUnreadLock.lock();
+      try {
+         mUnread.clear();
+         mUnreadChanged.signalAll();
+      } finally {
+         mUnreadLock.unlock();
+      }
+   }
+
+   /**
+    * Queues a room to be read by a reader drone.
+    * @param room The room.
+    */
+   public void addUnread(@NonNull Room room) {
+      mUnreadLock.lock();
+      try {
+         mUnread.offer(room);
+         mUnreadChanged.signal();
+      } finally {
+         mUnreadLock.unlock();
+      }
+   }
+
+   /**
+    * Takes a batch of rooms to read, waiting until there are some to take.
+    * @param max The maximum number of rooms to take.
+    * @return The rooms to read, or an empty list once exploration is
+    * complete and every room has been handed out.
+    */
+   @NonNull
+   public List<Room> takeUnread(int max) {
+      mUnreadLock.lock();
+      try {
+         while (mUnread.isEmpty() && !isDone()) {
+            mUnreadChanged.awaitUninterruptibly();
+         }
+         int count = Math.min(max, mUnread.size());
+         List<Room> rooms = new ArrayList<>(count);
+         for (int i = 0; i < count; i++) {
+            rooms.add(mUnread.poll());
+         }
+         return rooms;
+      } finally {
+         mUnreadLock.unlock();
+      }
+   }
+
+   /**
+    * Assigns each room that hasn't been scheduled yet to the drone with
+    * the least work, measured by frontier size plus commands in flight.
+    * Rooms that have already been scheduled (i.e. because the maze has a
+    * cycle) are skipped, as are resolved rooms when skipping those.
+    * @param rooms The rooms to assign.
+    * @return The number of rooms assigned.
+    */
+   public int distribute(@NonNull List<Room> rooms) {
+      if (mTasks.isEmpty()) {
+         return 0;
+      }
+
+      List<Room> pending = new ArrayList<>(rooms.size());
+      for (Room room : rooms) {
+         if (room.markScheduled()) {
+            pending.add(room);
+         }
+      }
+      return assign(skipResolved(pending));
+   }
+
+   /**
+    * When skipping resolved rooms, walks the known graph outwards from the
+    * given rooms, breadth first, through every room that is already fully
+    * resolved. Each room reached is marked scheduled, so no other walk
+    * (or drone) visits it again.
+    * @param scheduled Rooms that have just been marked scheduled.
+    * @return The unresolved rooms reached, nearest first, or the given
+    * rooms if resolved rooms aren't being skipped.
+    */
+   @NonNull
+   public List<Room> skipResolved(@NonNull List<Room> scheduled) {
+      if (!mSkipResolved) {
+         return scheduled;
+      }
+
+      Deque<Room> queue = new LinkedList<>(scheduled);
+      List<Room> unresolved = new ArrayList<>(scheduled.size());
+      int skipped = 0;
+      while (!queue.isEmpty()) {
+         Room room = queue.poll();
+         List<Room> connections = room.getConnections();
+         if (connections == null || !room.hasWriting()) {
+            unresolved.add(room);
+            continue;
+         }
+         skipped++;
+         for (Room connection : connections) {
+            if (connection.markScheduled()) {
+               queue.offer(connection);
+            }
+         }
+      }
+      if (skipped > 0) {
+         mSkipped.addAndGet(skipped);
+      }
+      return unresolved;
+   }
+
+   /**
+    * Assigns rooms that have already been marked scheduled to the drones
+    * with the least work. All of the rooms are planned out first and then
+    * handed to each drone in a single batch, so each drone is locked only
+    * once no matter how many rooms it receives.
+    * @param pending The rooms to assign.
+    * @return The number of rooms assigned.
+    */
+   public int assign(@NonNull List<Room> pending) {
+      DroneTask[] tasks = mTasks.toArray(new DroneTask[mTasks.size()]);
+      if (tasks.length == 0 || pending.isEmpty()) {
+         return 0;
+      }
+
+      int[] loads = new int[tasks.length];
+      for (int i = 0; i < tasks.length; i++) {
+         loads[i] = tasks[i].getLoad();
+      }
+
+      int assigned = 0;
+      while (!pending.isEmpty()) {
+         // Plan out which drone gets each room
+         List<List<Room>> batches = new ArrayList<>(tasks.length);
+         for (int i = 0; i < tasks.length; i++) {
+            batches.add(null);
+         }
+         for (Room room : pending) {
+            int target = -1;
+            for (int i = 0; i < tasks.length; i++) {
+               if (loads[i] != Integer.MAX_VALUE
+                   && (target < 0 || loads[i] < loads[target])) {
+                  target = i;
+               }
+            }
+            if (target < 0) {
+               // Every drone has finished
+               return assigned;
+            }
+            List<Room> batch = batches.get(target);
+            if (batch == null) {
+               batch = new ArrayList<>();
+               batches.set(target, batch);
+            }
+            batch.add(room);
+            loads[target]++;
+         }
+
+         // Hand each drone its batch. Rooms meant for a drone that finished
+         // in the meantime are planned again among the rest.
+         pending = new ArrayList<>();
+         for (int i = 0; i < tasks.length; i++) {
+            List<Room> batch = batches.get(i);
+            if (batch == null) {
+               continue;
+            }
+            if (tasks[i].addAll(batch)) {
+               assigned += batch.size();
+            } else {
+               loads[i] = Integer.MAX_VALUE;
+               pending.addAll(batch);
+            }
+         }
+      }
+      return assigned;
+   }
+
+   /**
+    * Takes half of the frontier of the busiest drone other than the given
+    * one.
+    * @param thief The drone task that has run out of rooms.
+    * @return The rooms taken, which may be empty.
+    */
+   @NonNull
+   public List<Room> steal(@NonNull DroneTask thief) {
+      DroneTask victim = null;
+      int victimLoad = 0;
+      for (DroneTask task : mTasks) {
+         if (task == thief) {
+            continue;
+         }
+         int load = task.getFrontierSize();
+         if (load > victimLoad) {
+            victim = task;
+            victimLoad = load;
+         }
+      }
+      if (victim == null) {
+         return Collections.emptyList();
+      }
+      return victim.stealHalf();
+   }
+
+   /**
+    * Called by a drone task that had work and became idle.
+    * @return Whether every drone is now idle, i.e. exploration is complete.
+    */
+   public boolean onIdle() {
+      return mActive.decrementAndGet() == 0;
+   }
+
+   /**
+    * Called by an idle drone task that was given more rooms.
+    */
+   public void onActive() {
+      mActive.incrementAndGet();
+   }
+
+   /**
+    * Returns whether every drone is idle, i.e. exploration is complete.
+    * @return Whether exploration is complete.
+    */
+   public boolean isDone() {
+      return mActive.get() == 0;
+   }
+
+   /**
+    * Wakes every idle drone task (and any reader waiting for rooms) so it
+    * can see that exploration is complete.
+    */
+   public void finishAll() {
+      for (DroneTask task : mTasks) {
+         task.wake();
+      }
+      mUnreadLock.lock();
+      try {
+         mUnreadChanged.signalAll();
+      } finally {
+         mUnreadLock.unlock();
+      }
+   }
+}
@@ -0,0 +1,225 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A snapshot of what a drone has been doing: how much work it has done,
+ * and how its time splits between working, waiting for the results of its
+ * commands, and sitting idle with no rooms to query. A starved drone spends
+ * its time idle; a saturated one spends it waiting for results.
+ */
+public class DroneStats {
+
+   @NonNull
+   private final String mDroneId;
+
+   @NonNull
+   private final DroneTask.Role mRole;
+
+   private final int mCommandsSent;
+   private final int mRequestsSent;
+   private final int mRequestsCompleted;
+   private final int mRoomsClaimed;
+   private final int mDuplicateHits;
+   private final long mElapsedNanos;
+   private final long mWaitingNanos;
+   private final long mIdleNanos;
+   private final long mInFlightNanos;
+   private final boolean mFinished;
+
+   private DroneStats(@NonNull Recorder recorder, long now) {
+      mDroneId = recorder.mDroneId;
+      mRole = recorder.mRole;
+      mCommandsSent = recorder.mCommandsSent;
+      mRequestsSent = recorder.mRequestsSent;
+      mRequestsCompleted = recorder.mRequestsCompleted;
+      mRoomsClaimed = recorder.mRoomsClaimed;
+      mDuplicateHits = recorder.mDuplicateHits;
+      mWaitingNanos = recorder.mWaitingNanos;
+      mIdleNanos = recorder.mIdleNanos;
+      mInFlightNanos = recorder.mInFlightNanos;
+      mFinished = recorder.mFinishedNanos != 0;
+      if (recorder.mStartedNanos == 0) {
+         mElapsedNanos = 0;
+      } else {
+         mElapsedNanos = (mFinished ? recorder.mFinishedNanos : now)
+             - recorder.mStartedNanos;
+      }
+   }
+
+   @NonNull
+   public String getDroneId() {
+      return mDroneId;
+   }
+
+   @NonNull
+   public DroneTask.Role getRole() {
+      return mRole;
+   }
+
+   public int getCommandsSent() {
+      return mCommandsSent;
+   }
+
+   public int getRequestsSent() {
+      return mRequestsSent;
+   }
+
+   public int getRoomsClaimed() {
+      return mRoomsClaimed;
+   }
+
+   /**
+    * Returns the number of rooms the drone took from its frontier that
+    * needed nothing from it, because they had already been claimed or
+    * resolved.
+    * @return The number of duplicate hits.
+    */
+   public int getDuplicateHits() {
+      return mDuplicateHits;
+   }
+
+   /**
+    * Returns how long the drone has been running.
+    * @return The elapsed time, in nanoseconds.
+    */
+   public long getElapsedNanos() {
+      return mElapsedNanos;
+   }
+
+   /**
+    * Returns how long the drone has spent blocked on the results of its
+    * commands.
+    * @return The waiting time, in nanoseconds.
+    */
+   public long getWaitingNanos() {
+      return mWaitingNanos;
+   }
+
+   /**
+    * Returns how long the drone has spent with no rooms to query.
+    * @return The idle time, in nanoseconds.
+    */
+   public long getIdleNanos() {
+      return mIdleNanos;
+   }
+
+   /**
+    * Returns how long the drone has spent neither waiting for results nor
+    * idle.
+    * @return The busy time, in nanoseconds.
+    */
+   public long getBusyNanos() {
+      return Math.max(mElapsedNanos - mWaitingNanos - mIdleNanos, 0);
+   }
+
+   /**
+    * Returns the average time from sending a "commands" request to
+    * getting its results back.
+    * @return The mean in-flight time, in nanoseconds.
+    */
+   public long getMeanInFlightNanos() {
+      return mRequestsCompleted == 0 ? 0 : mInFlightNanos / mRequestsCompleted;
+   }
+
+   public boolean isFinished() {
+      return mFinished;
+   }
+
+   @Override
+   public String toString() {
+      return "DroneStats{" +
+          "mDroneId='" + mDroneId + '\'' +
+          ", mRole=" + mRole +
+          ", mCommandsSent=" + mCommandsSent +
+          ", mRoomsClaimed=" + mRoomsClaimed +
+          ", mDuplicateHits=" + mDuplicateHits +
+          ", mElapsedNanos=" + mElapsedNanos +
+          ", mWaitingNanos=" + mWaitingNanos +
+          ", mIdleNanos=" + mIdleNanos +
+          '}';
+   }
+
+   /**
+    * Collects the counters of a single drone task. Counters are updated by
+    * the task's own thread, except for the results of requests, which are
+    * recorded by whichever thread handles the response.
+    */
+   static class Recorder {
+
+      @NonNull
+      private final String mDroneId;
+
+      @NonNull
+      private DroneTask.Role mRole;
+
+      private int mCommandsSent;
+      private int mRequestsSent;
+      private int mRequestsCompleted;
+      private int mRoomsClaimed;
+      private int mDuplicateHits;
+      private long mStartedNanos;
+      private long mFinishedNanos;
+      private long mWaitingNanos;
+      private long mIdleNanos;
+      private long mInFlightNanos;
+
+      /**
+       * When the request awaiting results was sent, or zero if there
+       * isn't one.
+       */
+      private long mSentNanos;
+
+      Recorder(@NonNull String droneId) {
+         mDroneId = droneId;
+         mRole = DroneTask.Role.HYBRID;
+      }
+
+      synchronized void setRole(@NonNull DroneTask.Role role) {
+         mRole = role;
+      }
+
+      synchronized void started() {
+         mStartedNanos = System.nanoTime();
+      }
+
+      synchronized void finished() {
+         mFinishedNanos = System.nanoTime();
+      }
+
+      synchronized void roomsClaimed(int count) {
+         mRoomsClaimed += count;
+      }
+
+      synchronized void duplicateHit() {
+         mDuplicateHits++;
+      }
+
+      synchronized void commandsSent(int count) {
+         mCommandsSent += count;
+         mRequestsSent++;
+         mSentNanos = System.nanoTime();
+      }
+
+      synchronized void resultsReceived() {
+         if (mSentNanos != 0) {
+            mInFlightNanos += System.nanoTime() - mSentNanos;
+            mRequestsCompleted++;
+            mSentNanos = 0;
+         }
+      }
+
+      synchronized void waited(long nanos) {
+         mWaitingNanos += nanos;
+      }
+
+      synchronized void idled(long nanos) {
+         mIdleNanos += nanos;
+      }
+
+      @NonNull
+      synchronized DroneStats snapshot() {
+         return new DroneStats(this, System.nanoTime());
+      }
+   }
+}
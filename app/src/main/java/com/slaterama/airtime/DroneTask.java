@@ -4,6 +4,7 @@ import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
+import com.slaterama.airtime.frontier.FrontierStrategy;
 import com.slaterama.airtime.model.Command;
 import com.slaterama.airtime.model.Drone;
 import com.slaterama.airtime.model.Room;
@@ -11,19 +12,22 @@ import com.slaterama.airtime.model.Room;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
-import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The main algorithm for drone exploration!
  */
 public class DroneTask extends AsyncTask<Void, Room, Integer> {
 
-   private static final int BUFFER_SIZE = 5;
+   /**
+    * The most commands the server accepts in one request.
+    */
+   public static final int BUFFER_SIZE = 5;
 
    /**
     * A little trick to randomize connecting rooms to try to get the
@@ -31,6 +35,27 @@ public class DroneTask extends AsyncTask<Void, Room, Integer> {
     */
    private static final boolean SHUFFLE = true;
 
+   /**
+    * The job a drone does.
+    */
+   public enum Role {
+      /**
+       * Both explores and reads the rooms assigned to it.
+       */
+      HYBRID,
+
+      /**
+       * Only explores the rooms assigned to it, leaving them to be read
+       * by a {@link #READER}.
+       */
+      EXPLORER,
+
+      /**
+       * Only reads rooms that explorers have found, in full batches.
+       */
+      READER
+   }
+
    /**
     * The {@link Drone} associated with this task.
     */
@@ -43,6 +68,18 @@ public class DroneTask extends AsyncTask<Void, Room, Integer> {
    @NonNull
    private final DroneTaskListener mListener;
 
+   /**
+    * The scheduler that assigns rooms to this drone.
+    */
+   @NonNull
+   private final DroneScheduler mScheduler;
+
+   /**
+    * The job this drone does.
+    */
+   @NonNull
+   private Role mRole;
+
    /**
     * A command buffer that will batch a series of commands.
     */
@@ -50,21 +87,26 @@ public class DroneTask extends AsyncTask<Void, Room, Integer> {
    private final Queue<Command> mCommandBuffer;
 
    /**
-    * A linked list of rooms that will be maintained as a depth-first
-    * search of rooms. To accomplish this in an asynchronous environment,
-    * newly-discovered rooms will always be pre-pended to the list as they
-    * arrive.
+    * The rooms this task has yet to query, in the order given by its
+    * {@link FrontierStrategy}. Depth-first unless told otherwise.
+    */
+   @NonNull
+   private FrontierStrategy mFrontier;
+
+   /**
+    * Guards {@link #mFrontier}, {@link #mCurrentRoom} and {@link #mBusy}. An
+    * explicit lock (rather than synchronizing on mFrontier) keeps a waiting
+    * drone from pinning its carrier thread on runtimes with lightweight
+    * threads.
     */
    @NonNull
-   private final Deque<Room> mRooms;
+   private final ReentrantLock mLock;
 
    /**
-    * A set of rooms known by this task. Even if we don't visit the room in
-    * question, we consider it "known" if we take a look at whether it has
-    * already been visited by another drone.
+    * Signalled whenever rooms are added or the drone stops being busy.
     */
    @NonNull
-   private final Set<Room> mKnown;
+   private final Condition mChanged;
 
    /**
     * The room currently being queried by this task. This does not necessarily
@@ -78,14 +120,76 @@ public class DroneTask extends AsyncTask<Void, Room, Integer> {
     */
    private boolean mBusy;
 
+   /**
+    * The number of commands sent by this task that are awaiting results.
+    */
+   private int mInFlight;
+
+   /**
+    * The number of rooms whose commands have been batched since commands
+    * were last sent.
+    */
+   private int mBatchedRooms;
+
+   /**
+    * Whether this task has run out of rooms and told the scheduler so.
+    */
+   private boolean mIdle;
+
+   /**
+    * Whether this task has stopped taking rooms.
+    */
+   private boolean mFinished;
+
+   /**
+    * Shuffles newly-assigned rooms when {@link #SHUFFLE} is on, and picks
+    * the next room for a random frontier.
+    */
+   @NonNull
+   private final Random mRandom;
+
+   /**
+    * Decides when this task may run in deterministic mode, or null if it
+    * runs freely.
+    */
+   private Sequencer mSequencer;
+
+   /**
+    * The most commands sent in one request.
+    */
+   private int mBatchSize;
+
+   /**
+    * The number of frontier rooms whose commands are batched into one
+    * request. With a lookahead of 1, a drone sends its commands as soon as
+    * its current room needs exploring and waits for the connections before
+    * moving on. With a larger lookahead, it keeps pulling rooms from its
+    * frontier into the next batch while the previous one is in flight.
+    */
+   private int mLookahead;
+
+   /**
+    * Counts what this task does and where its time goes.
+    */
+   @NonNull
+   private final DroneStats.Recorder mStats;
+
    public DroneTask(
        @NonNull Drone drone,
-       @NonNull DroneTaskListener listener) {
+       @NonNull DroneTaskListener listener,
+       @NonNull DroneScheduler scheduler) {
       mDrone = drone;
       mListener = listener;
+      mScheduler = scheduler;
+      mRole = Role.HYBRID;
+      mRandom = new Random();
       mCommandBuffer = new LinkedList<>();
-      mRooms = new LinkedList<>();
-      mKnown = new HashSet<>();
+      mFrontier = FrontierStrategy.Type.DEPTH_FIRST.create(mRandom);
+      mLock = new ReentrantLock();
+      mChanged = mLock.newCondition();
+      mStats = new DroneStats.Recorder(drone.getId());
+      mBatchSize = BUFFER_SIZE;
+      mLookahead = BUFFER_SIZE;
    }
 
    @NonNull
@@ -93,17 +197,97 @@ public class DroneTask extends AsyncTask<Void, Room, Integer> {
       return mDrone;
    }
 
+   @NonNull
+   public Role getRole() {
+      return mRole;
+   }
+
+   /**
+    * Sets the job this drone does. This must be called before the task
+    * is executed.
+    * @param role The drone's role.
+    */
+   public void setRole(@NonNull Role role) {
+      mRole = role;
+      mStats.setRole(role);
+   }
+
+   /**
+    * Sets the most commands sent in one request, which is clamped to
+    * between one and {@link #BUFFER_SIZE}. This must be called before the
+    * task is executed.
+    * @param batchSize The batch size.
+    */
+   public void setBatchSize(int batchSize) {
+      mBatchSize = Math.max(1, Math.min(batchSize, BUFFER_SIZE));
+   }
+
+   /**
+    * Sets the number of frontier rooms whose commands are batched into one
+    * request, which is at least one. This must be called before the task
+    * is executed.
+    * @param lookahead The lookahead.
+    */
+   public void setLookahead(int lookahead) {
+      mLookahead = Math.max(1, lookahead);
+   }
+
+   /**
+    * Returns a snapshot of what this task has done so far.
+    * @return The task's stats.
+    */
+   @NonNull
+   public DroneStats getStats() {
+      return mStats.snapshot();
+   }
+
+   /**
+    * Seeds the random number generator used to shuffle newly-assigned
+    * rooms, so that the drone takes the same path on every run. This must
+    * be called before the task is executed.
+    * @param seed The seed.
+    */
+   public void setSeed(long seed) {
+      mRandom.setSeed(seed);
+   }
+
+   /**
+    * Sets the order in which this task visits its rooms. This must be
+    * called before the task is executed. A {@link
+    * FrontierStrategy.Type#RANDOM} frontier shares the generator seeded by
+    * {@link #setSeed(long)}.
+    * @param type The frontier strategy.
+    */
+   public void setFrontierType(@NonNull FrontierStrategy.Type type) {
+      mFrontier = type.create(mRandom);
+   }
+
+   /**
+    * Runs this task in deterministic mode: it only runs while it holds the
+    * sequencer's turn, and hands the turn on whenever it blocks. The task
+    * must be marked ready with the sequencer before it is executed.
+    * @param sequencer The sequencer.
+    */
+   public void setSequencer(Sequencer sequencer) {
+      mSequencer = sequencer;
+   }
+
    /**
     * Sets whether this task is busy (i.e. awaiting the response of a
     * "command" HTTP request.
     * @param busy Whether this task is busy.
     */
    public void setBusy(boolean busy) {
-      mBusy = busy;
-      if (!busy) {
-         synchronized (mRooms) {
-            mRooms.notify();
+      mLock.lock();
+      try {
+         mBusy = busy;
+         if (!busy) {
+            mInFlight = 0;
+            mStats.resultsReceived();
+            signalChanged();
          }
+      } finally {
+         mLock.unlock();
       }
    }
 
@@ -116,27 +300,124 @@ public class DroneTask extends AsyncTask<Void, Room, Integer> {
       return room.equals(mCurrentRoom);
    }
 
+   /**
+    * Returns how much work this task has queued up: the size of its
+    * frontier plus the number of its commands awaiting results.
+    * @return The task's load.
+    */
+   public int getLoad() {
+      mLock.lock();
+      try {
+         return mFrontier.size() + mInFlight;
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of rooms in this task's frontier.
+    * @return The frontier size.
+    */
+   public int getFrontierSize() {
+      mLock.lock();
+      try {
+         return mFrontier.size();
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Removes and returns the half of this task's frontier that it would
+    * otherwise get to last.
+    * @return The removed rooms.
+    */
+   @NonNull
+   public List<Room> stealHalf() {
+      mLock.lock();
+      try {
+         return mFrontier.removeLast(mFrontier.size() / 2);
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Wakes this task if it is waiting, so that it re-checks its state.
+    */
+   public void wake() {
+      mLock.lock();
+      try {
+         signalChanged();
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Returns a snapshot of the rooms this task has yet to query, starting
+    * with the room currently being queried.
+    * @return The task's frontier.
+    */
+   @NonNull
+   public List<Room> getFrontier() {
+      mLock.lock();
+      try {
+         List<Room> frontier = new ArrayList<>(mFrontier.size() + 1);
+         if (mCurrentRoom != null) {
+            frontier.add(mCurrentRoom);
+         }
+         frontier.addAll(mFrontier.toList());
+         return frontier;
+      } finally {
+         mLock.unlock();
+      }
+   }
+
    @Override
    protected Integer doInBackground(Void... voids) {
-      int roomsProcessed = 0;
+      if (mSequencer != null) {
+         mSequencer.awaitTurn(this);
+      }
+      mStats.started();
+      try {
+         return run();
+      } finally {
+         mStats.finished();
+         if (mSequencer != null) {
+            // Finishing touches session state, so it happens here while
+            // the task still holds the turn rather than on the main thread
+            if (!isCancelled()) {
+               mListener.onFinished(this);
+            }
+            mSequencer.leave(this);
+         }
+      }
+   }
 
-      synchronized (mRooms) {
-         mCurrentRoom = mRooms.pollFirst();
+   private int run() {
+      if (mRole == Role.READER) {
+         return readRooms();
       }
 
+      int roomsProcessed = 0;
+
       // As long as we have rooms to query, keep looping.
       // Note that more rooms may get pre-pended to the list.
-      while (mCurrentRoom != null && !isCancelled()) {
-         // Mark this room as "known"
-         mKnown.add(mCurrentRoom);
-
+      while (nextRoom() != null) {
          String roomId = mCurrentRoom.getId();
+         boolean claimed = false;
 
-         // Optionally add a read command
+         // Optionally add a read command (or leave it for a reader)
          if (!mCurrentRoom.hasWriting() &&
              !mCurrentRoom.isAwaitingWriting()) {
-            mCommandBuffer.add(new Command(Command.READ, roomId));
             mCurrentRoom.setAwaitingWriting(true);
+            if (mRole == Role.EXPLORER) {
+               mScheduler.addUnread(mCurrentRoom);
+            } else {
+               mCommandBuffer.add(new Command(Command.READ, roomId));
+            }
+            claimed = true;
          }
 
          // Optionally add an explore command
@@ -144,43 +425,227 @@ public class DroneTask extends AsyncTask<Void, Room, Integer> {
              !mCurrentRoom.isAwaitingConnections()) {
             mCommandBuffer.add(new Command(Command.EXPLORE, roomId));
             mCurrentRoom.setAwaitingConnections(true);
+            claimed = true;
          }
 
-         // If the room already has connections, we should add them now.
-         if (mCurrentRoom.hasConnections()) {
-            addAll(mCurrentRoom.getConnections());
+         if (claimed) {
+            mListener.onRoomClaimed(this, mCurrentRoom);
+            mStats.roomsClaimed(1);
+            mBatchedRooms++;
+         } else {
+            mStats.duplicateHit();
          }
 
-         // If we are awaiting connections or our command buffer is full,
-         // we need to send commands.
-         if (mCurrentRoom.isAwaitingConnections()
-             || mCommandBuffer.size() >= BUFFER_SIZE) {
-            sendCommands();
+         // If the room already has connections, any that haven't been
+         // assigned to a drone yet should be now.
+         List<Room> connections = mCurrentRoom.getConnections();
+         if (connections != null) {
+            mScheduler.distribute(connections);
          }
 
          roomsProcessed++;
 
-         // We need to wait here if the current room is awaiting connections,
-         // or if we are awaiting the results of a commands request.
-         synchronized (mRooms) {
-            while (mCurrentRoom.isAwaitingConnections() || mBusy) {
-               try {
-                  mRooms.wait();
-               } catch (InterruptedException e) {
-                  // Ignore interruptions
-               }
+         if (mLookahead > 1) {
+            // Keep pulling rooms into the batch; once it's full, wait for
+            // the previous batch's results (if need be) and send it.
+            if (mBatchedRooms >= mLookahead
+                || mCommandBuffer.size() >= mBatchSize) {
+               awaitResults();
+               sendCommands();
+            }
+         } else {
+            // If we are awaiting connections or our command buffer is full,
+            // we need to send commands.
+            if (mCurrentRoom.isAwaitingConnections()
+                || mCommandBuffer.size() >= mBatchSize) {
+               sendCommands();
             }
 
-            mCurrentRoom = mRooms.pollFirst();
+            // We need to wait here if the current room is awaiting
+            // connections, or if we are awaiting the results of a commands
+            // request.
+            awaitResults();
          }
       }
 
       return roomsProcessed;
    }
 
+   /**
+    * The main loop of a {@link Role#READER} drone: takes batches of rooms
+    * that explorers have found and reads them.
+    * @return The number of rooms read.
+    */
+   private int readRooms() {
+      int roomsRead = 0;
+      while (!isCancelled()) {
+         long idleStart = System.nanoTime();
+         List<Room> rooms = mScheduler.takeUnread(mBatchSize);
+         mStats.idled(System.nanoTime() - idleStart);
+         if (rooms.isEmpty()) {
+            break;
+         }
+
+         for (Room room : rooms) {
+            mCommandBuffer.add(new Command(Command.READ, room.getId()));
+            mListener.onRoomClaimed(this, room);
+         }
+         mStats.roomsClaimed(rooms.size());
+         roomsRead += rooms.size();
+
+         sendCommands();
+         awaitResults();
+      }
+      return roomsRead;
+   }
+
+   /**
+    * Sends every batched command and waits for the results.
+    * @return Whether there were any commands to send or results to wait
+    * for.
+    */
+   private boolean flushCommands() {
+      boolean pending;
+      mLock.lock();
+      try {
+         pending = mBusy || !mCommandBuffer.isEmpty();
+      } finally {
+         mLock.unlock();
+      }
+
+      while (!mCommandBuffer.isEmpty()) {
+         awaitResults();
+         sendCommands();
+      }
+      awaitResults();
+      return pending;
+   }
+
+   /**
+    * Waits while this task is awaiting the results of a commands request
+    * or (without lookahead) while the current room is awaiting
+    * connections.
+    */
+   private void awaitResults() {
+      mLock.lock();
+      try {
+         if (isBlocked()) {
+            mListener.onBlocked(this);
+            long waitStart = System.nanoTime();
+            while (isBlocked() && !isCancelled()) {
+               awaitChanged();
+            }
+            mStats.waited(System.nanoTime() - waitStart);
+            mListener.onUnblocked(this);
+         }
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   private boolean isBlocked() {
+      return mBusy
+          || (mLookahead <= 1
+              && mCurrentRoom != null
+              && mCurrentRoom.isAwaitingConnections());
+   }
+
+   /**
+    * Moves on to the next room in this task's frontier. If the frontier is
+    * empty, takes work from the busiest drone, and failing that waits until
+    * the scheduler assigns more rooms or every drone is idle.
+    * @return The next room, or null if exploration is complete.
+    */
+   private Room nextRoom() {
+      while (!isCancelled()) {
+         mLock.lock();
+         try {
+            mCurrentRoom = mFrontier.poll();
+            if (mCurrentRoom != null) {
+               return mCurrentRoom;
+            }
+         } finally {
+            mLock.unlock();
+         }
+
+         // Our own frontier is exhausted. Send anything batched up and wait
+         // for the results, which may bring more rooms.
+         if (flushCommands()) {
+            continue;
+         }
+
+         // Still nothing, so rebalance
+         List<Room> stolen = mScheduler.steal(this);
+         if (!stolen.isEmpty()) {
+            addAll(stolen);
+            continue;
+         }
+
+         boolean done;
+         mLock.lock();
+         try {
+            if (!mFrontier.isEmpty()) {
+               continue;
+            }
+            mIdle = true;
+            done = mScheduler.onIdle();
+            long idleStart = System.nanoTime();
+            while (!done && mFrontier.isEmpty() && !isCancelled()) {
+               awaitChanged();
+               done = mScheduler.isDone();
+            }
+            mStats.idled(System.nanoTime() - idleStart);
+            if (done) {
+               mFinished = true;
+            }
+         } finally {
+            mLock.unlock();
+         }
+
+         if (done) {
+            mScheduler.finishAll();
+            return null;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Waits until this task's state changes. In deterministic mode the task
+    * hands on the sequencer's turn instead, and gets it back once another
+    * party changes its state. Must be called with {@link #mLock} held.
+    */
+   private void awaitChanged() {
+      if (mSequencer == null) {
+         mChanged.awaitUninterruptibly();
+         return;
+      }
+      // Only the turn holder runs, so nothing can change between
+      // unlocking and handing the turn on.
+      mLock.unlock();
+      try {
+         mSequencer.yield(this);
+      } finally {
+         mLock.lock();
+      }
+   }
+
+   /**
+    * Wakes this task if it is waiting for its state to change. Must be
+    * called with {@link #mLock} held.
+    */
+   private void signalChanged() {
+      mChanged.signalAll();
+      if (mSequencer != null) {
+         mSequencer.ready(this);
+      }
+   }
+
    @Override
    protected void onPostExecute(Integer integer) {
-      mListener.onFinished(this);
+      if (mSequencer == null) {
+         mListener.onFinished(this);
+      }
    }
 
    private void sendCommands() {
@@ -189,45 +654,94 @@ public class DroneTask extends AsyncTask<Void, Room, Integer> {
          return;
       }
 
-      mBusy = true;
+      mLock.lock();
+      try {
+         mBusy = true;
+      } finally {
+         mLock.unlock();
+      }
 
       int index = 0;
-      List<Command> commands = new ArrayList<>(BUFFER_SIZE);
-      while (!mCommandBuffer.isEmpty() && commands.size() < BUFFER_SIZE) {
+      List<Command> commands = new ArrayList<>(mBatchSize);
+      while (!mCommandBuffer.isEmpty() && commands.size() < mBatchSize) {
          Command command = mCommandBuffer.poll();
          command.setIndex(++index);
          commands.add(command);
       }
 
+      mLock.lock();
+      try {
+         mInFlight = commands.size();
+      } finally {
+         mLock.unlock();
+      }
+      mBatchedRooms = 0;
+
+      mStats.commandsSent(commands.size());
       mListener.onSendCommands(this, Collections.unmodifiableList(commands));
    }
 
+   /**
+    * Sends the commands that resolve the given room straight away, from
+    * the calling thread, so that the room's round trip doesn't wait for
+    * this task's thread to start. The room is read as well as explored,
+    * whatever this drone's role. Must be called before the task is
+    * executed.
+    * @param room The room, which must already be scheduled.
+    */
+   public void sendFirst(@NonNull Room room) {
+      String roomId = room.getId();
+      if (!room.hasWriting() && !room.isAwaitingWriting()) {
+         room.setAwaitingWriting(true);
+         mCommandBuffer.add(new Command(Command.READ, roomId));
+      }
+      if (!room.hasConnections() && !room.isAwaitingConnections()) {
+         room.setAwaitingConnections(true);
+         mCommandBuffer.add(new Command(Command.EXPLORE, roomId));
+      }
+      if (!mCommandBuffer.isEmpty()) {
+         mListener.onRoomClaimed(this, room);
+         mStats.roomsClaimed(1);
+         sendCommands();
+      }
+   }
+
    public boolean add(@NonNull Room... rooms) {
       return addAll(Arrays.asList(rooms));
    }
 
    /**
-    * Adds all of the rooms in the given collection to the beginning of the
-    * linked this. This will essentially create a BFS search. NOTE that even
-    * without shuffling, the rooms will be added to the front of the linked
-    * list in opposite order. However order shouldn't matter in this case.
+    * Adds all of the rooms in the given collection to this task's frontier,
+    * which decides where they go. NOTE that with the default depth-first
+    * frontier, even without shuffling, the rooms end up in opposite order.
+    * However order shouldn't matter in this case.
     * @param rooms The collection of rooms to add.
-    * @return
+    * @return Whether any rooms were added. No rooms are added once this
+    * task has finished.
     */
    public boolean addAll(@NonNull List<Room> rooms) {
       if (rooms.size() > 1 && SHUFFLE) {
-         Collections.shuffle(rooms);
+         rooms = new ArrayList<>(rooms);
+         Collections.shuffle(rooms, mRandom);
       }
 
       boolean changed = false;
-      synchronized (mRooms) {
+      mLock.lock();
+      try {
+         if (mFinished) {
+            return false;
+         }
          for (Room room : rooms) {
-            if (!mKnown.contains(room) &&
-                mRooms.offerFirst(room)) {
-               changed = true;
-            }
+            mFrontier.add(room);
+            changed = true;
+         }
+         if (changed && mIdle) {
+            mIdle = false;
+            mScheduler.onActive();
          }
-         mRooms.notify();
+         signalChanged();
+      } finally {
+         mLock.unlock();
       }
       return changed;
    }
@@ -239,6 +753,9 @@ public class DroneTask extends AsyncTask<Void, Room, Integer> {
       void onSendCommands(
           @NonNull DroneTask task,
           @NonNull List<Command> commands);
+      void onRoomClaimed(@NonNull DroneTask task, @NonNull Room room);
+      void onBlocked(@NonNull DroneTask task);
+      void onUnblocked(@NonNull DroneTask task);
       void onFinished(@NonNull DroneTask task);
    }
 }
@@ -3,47 +3,41 @@ package com.slaterama.airtime;
 import android.app.Service;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.v4.content.LocalBroadcastManager;
-import android.util.Log;
-import android.util.SparseArray;
-
-import com.slaterama.airtime.http.request.CommandsRequest;
-import com.slaterama.airtime.http.request.ReportRequest;
-import com.slaterama.airtime.http.request.StartRequest;
-import com.slaterama.airtime.http.response.CommandsResponse;
-import com.slaterama.airtime.http.response.CommandsResponse.ConnectionsResult;
-import com.slaterama.airtime.http.response.CommandsResponse.ErrorResult;
-import com.slaterama.airtime.http.response.CommandsResponse.Result;
-import com.slaterama.airtime.http.response.CommandsResponse.WritingResult;
-import com.slaterama.airtime.http.response.ErrorResponse;
-import com.slaterama.airtime.http.response.HttpResponse;
-import com.slaterama.airtime.http.response.NotFoundResponse;
+
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.UrlConnectionTransport;
 import com.slaterama.airtime.http.response.ReportResponse;
-import com.slaterama.airtime.http.response.StartResponse;
-import com.slaterama.airtime.model.Command;
-import com.slaterama.airtime.model.Drone;
-import com.slaterama.airtime.model.Room;
-import com.slaterama.airtime.model.Writing;
-
-import java.util.ArrayList;
-import java.util.HashMap;
+import com.slaterama.airtime.persist.Checkpoint;
+import com.slaterama.airtime.persist.RoomCache;
+import com.slaterama.airtime.persist.RoomSpill;
+import com.slaterama.airtime.trace.DebugLog;
+import com.slaterama.airtime.trace.EventLog;
+import com.slaterama.airtime.trace.RecordingTransport;
+import com.slaterama.airtime.trace.ReplayTransport;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-
-import static com.slaterama.airtime.model.Writing.INVALID_WRITING;
+import java.util.concurrent.TimeUnit;
 
 /**
- * The main Service that manages drones, rooms, and writing.
+ * The main Service, which runs an exploration {@link Session} on behalf of
+ * {@link MainActivity}. The transport, the threads requests are sent on and
+ * the threads drones run on are created once and shared by every session
+ * the service runs.
  */
 public class GanymedeService extends Service
-   implements RequestManager.RequestListener,
-              DroneTask.DroneTaskListener {
-
-   private static final boolean DEBUG = true;
+   implements Session.SessionListener {
 
    private static final String TAG = GanymedeService.class.getSimpleName();
 
@@ -51,325 +45,218 @@ public class GanymedeService extends Service
    public static final String EXTRA_RESPONSE = "response";
 
    /**
-    * Class that manages HTTP requests.
+    * The default number of rooms kept in memory before resolved rooms are
+    * compacted and spilled to disk. Zero means memory is unbounded.
     */
-   @NonNull
-   private final RequestManager mRequestManager;
+   private static final int DEFAULT_ROOM_BUDGET = 0;
 
    /**
-    * Whether {@link GanymedeBinder#start()} has been previously called.
+    * Whether to record each session to a binary {@link EventLog}. Only
+    * debug builds do, since the log costs a write per response.
     */
-   private boolean mStarted;
+   private static final boolean RECORD_EVENTS = BuildConfig.DEBUG;
 
    /**
-    * A collection of all drones currently in play.
+    * The file (in the files directory) that sessions are recorded to.
     */
-   @NonNull
-   private final Map<String, Drone> mDrones;
+   public static final String EVENT_LOG_FILE = "events.bin";
 
    /**
-    * A collection of all drone tasks currently running.
+    * The file (in the files directory) that replayed sessions are
+    * recorded to, so that replaying doesn't overwrite the original.
     */
-   @NonNull
-   private final Map<String, DroneTask> mDroneTasks;
+   public static final String REPLAY_LOG_FILE = "replay.bin";
 
    /**
-    * A collection of all rooms currently known by the system.
+    * The seed replayed sessions run in deterministic mode with.
     */
-   @NonNull
-   private final Map<String, Room> mRooms;
+   private static final long REPLAY_SEED = 0L;
 
    /**
-    * A collection of all valid writings discovered by the drones.
+    * How long a cancelled session is given to quiesce before it is
+    * reported as stuck.
     */
-   @NonNull
-   private final SparseArray<Writing> mWritings;
-
-   private GanymedeBinder mBinder;
-
-   public GanymedeService() {
-      super();
-      mRequestManager = new RequestManager(this);
-      mDrones = new HashMap<>();
-      mDroneTasks = new HashMap<>();
-      mRooms = new HashMap<>();
-      mWritings = new SparseArray<>();
-   }
-
-   @Override
-   public void onCreate() {
-      super.onCreate();
-   }
-
-   @Override
-   public IBinder onBind(Intent intent) {
-      if (mBinder == null) {
-         mBinder = new GanymedeBinder();
-      }
-      return mBinder;
-   }
+   private static final long QUIESCE_TIMEOUT_SECONDS = 10;
 
    /**
-    * Handles HTTP request errors.
-    * @param e The error that was encountered
+    * The transport shared by every session.
     */
-   @Override
-   public void onRequestError(Exception e) {
-      if (DEBUG) {
-         Log.e(TAG, "onRequestError", e);
-      }
-   }
+   @NonNull
+   private final Transport mTransport;
 
    /**
-    * Handles all successful HTTP request responses.
-    * @param response The {@link HttpResponse}.
+    * The threads requests are sent on, shared by every session. Each
+    * session's {@link RequestManager} limits how many of them it uses.
     */
-   @Override
-   public void onRequestResponse(HttpResponse response) {
-      if (DEBUG) {
-         Log.d(TAG, "Received " + response);
-      }
-      if (response instanceof StartResponse) {
-         handleStartResponse((StartResponse) response);
-      } else if (response instanceof CommandsResponse) {
-         handleCommandsReponse((CommandsResponse) response);
-      } else if (response instanceof ReportResponse) {
-         handleReportResponse((ReportResponse) response);
-      } else if (response instanceof NotFoundResponse) {
-         handleNotFoundResponse((NotFoundResponse) response);
-      } else if (response instanceof ErrorResponse) {
-         handleErrorResponse((ErrorResponse) response);
-      }
-   }
+   @NonNull
+   private final ExecutorService mDispatcher;
 
    /**
-    * Handles when a drone task signifies that a command request should
-    * be sent.
-    * @param task The drone task that sent this message.
-    * @param commands A {@link List} of commands to send.
+    * The threads drones run on, shared by every session. Threads are kept
+    * warm between sessions, so starting one doesn't create them.
     */
-   @Override
-   public void onSendCommands(
-       @NonNull DroneTask task,
-       @NonNull List<Command> commands) {
-      mRequestManager.add(new CommandsRequest(
-          task.getDrone(), commands));
-   }
+   @NonNull
+   private final DroneExecutor mDroneExecutor;
 
    /**
-    * Sent by a drone task when a drone has queried all rooms.
-    * NOTE: "Queried" does not mean that a drone physically visited a room.
-    * In each case we check whether a room needs processing before we would
-    * send a drone to examine it. But even if a room has already been
-    * processed, we "query" that room in the data to be sure.
-    * @param task The drone task that sent this message.
+    * Hands finished sessions back to the main thread, which owns
+    * {@link #mSession}. Replayed sessions finish on their sequencer's
+    * thread.
     */
-   @Override
-   public void onFinished(@NonNull DroneTask task) {
-      Drone drone = task.getDrone();
-      if (DEBUG) {
-         Log.d(TAG, "Finished: " + drone);
-      }
-      mDroneTasks.remove(drone.getId());
-      if (mDroneTasks.size() == 0) {
-         if (DEBUG) {
-            Log.d(TAG, "All drones have finished!!!");
-         }
-         mRequestManager.add(
-             new ReportRequest(mWritings));
-      }
-   }
+   @NonNull
+   private final Handler mMainHandler;
 
    /**
-    * Returns the {@link Drone} that corresponds to the given id,
-    * creating one if necessary.
-    * @param droneId The drone id.
-    * @return The drone with the given id.
+    * The session started by {@link GanymedeBinder#start()}, or null if
+    * there isn't one.
     */
-   private Drone resolveDrone(@NonNull String droneId) {
-      Drone drone = mDrones.get(droneId);
-      if (drone == null) {
-         drone = new Drone(droneId);
-
-         if (DEBUG) {
-            Log.d(TAG, "Created " + drone);
-         }
-
-         mDrones.put(droneId, drone);
-      }
-      return drone;
-   }
+   private Session mSession;
 
    /**
-    * Returns the {@link DroneTask} that corresponds to the given drone id,
-    * creating one if necessary.
-    * @param droneId The drone id.
-    * @return The drone task associated with the given id.
+    * The number of rooms kept in memory before resolved rooms are
+    * compacted, or zero if memory is unbounded.
     */
-   private DroneTask resolveDroneTask(@NonNull String droneId) {
-      DroneTask task = mDroneTasks.get(droneId);
-      if (task == null) {
-         Drone drone = resolveDrone(droneId);
-         task = new DroneTask(drone, this);
-
-         if (DEBUG) {
-            Log.d(TAG, "Created " + task);
-         }
-
-         mDroneTasks.put(droneId, task);
-      }
-      return task;
-   }
+   private int mRoomBudget;
 
    /**
-    * Returns the {@link Room} that corresponds to the given id,
-    * creating one if necessary.
-    * @param roomId The room id.
-    * @return The room with the given id.
+    * A periodic snapshot of the session, so it can be resumed if the
+    * process dies.
     */
-   private Room resolveRoom(@NonNull String roomId) {
-      Room room = mRooms.get(roomId);
-      if (room == null) {
-         room = new Room(roomId);
-
-         if (DEBUG) {
-            Log.d(TAG, "Created " + room);
-         }
-
-         mRooms.put(roomId, room);
-      }
-      return room;
-   }
+   private Checkpoint mCheckpoint;
 
    /**
-    * Returns a {@link Writing} with the given parameters, saving the
-    * writing if it is valid, that is, has an order != -1. If we were to
-    * get another writing with the same order, the old one will be overritten.
-    * @param text The writing text.
-    * @param order The writing order.
-    * @return A writing instance.
+    * Rooms from previous runs against the same maze.
     */
-   private Writing resolveWriting(@NonNull String text, int order) {
-      Writing writing = new Writing(text, order);
-      if (order != INVALID_WRITING) {
-         mWritings.put(order, writing);
-
-         if (DEBUG) {
-            Log.d(TAG, "Found valid writing! " + writing);
-         }
-      }
-      return writing;
-   }
+   private RoomCache mRoomCache;
 
    /**
-    * Handles the response from a "start" HTTP request.
-    * @param response The HTTP response.
+    * Rooms compacted out of memory, kept on disk for the room cache.
     */
-   private void handleStartResponse(StartResponse response) {
-      String roomId = response.getRoomId();
-      Room room = resolveRoom(roomId);
-      List<String> droneIds = response.getDroneIds();
-
-      // Resolve all drones first
-      for (String droneId : droneIds) {
-         resolveDrone(droneId);
-      }
+   private RoomSpill mRoomSpill;
 
-      // Create an executor with enough threads for our drones
-      Executor executor = Executors.newFixedThreadPool(droneIds.size());
+   private GanymedeBinder mBinder;
 
-      // Now that all drones are resolved, resolve and execute
-      // a task for each one
-      for (Drone drone : mDrones.values()) {
-         DroneTask task = resolveDroneTask(drone.getId());
-         task.add(room);
-         task.executeOnExecutor(executor);
-      }
+   public GanymedeService() {
+      super();
+      mTransport = new UrlConnectionTransport();
+      mDispatcher = Executors.newCachedThreadPool();
+      mDroneExecutor = new DroneExecutor();
+      mMainHandler = new Handler(Looper.getMainLooper());
+      mRoomBudget = DEFAULT_ROOM_BUDGET;
    }
 
-   /**
-    * Handles the response from a "command" HTTP request.
-    * @param response The HTTP response.
-    */
-   private void handleCommandsReponse(CommandsResponse response) {
-      int resultCount = response.getResultCount();
-      for (int i = 0; i < resultCount; i++) {
-         Result result = response.resultAt(i);
-         Command command = result.getCommand();
-         Room room = resolveRoom(command.getRoomId());
-
-         if (result instanceof WritingResult) {
-            // We've encoutered a writing result
-            WritingResult writingResult = (WritingResult) result;
-            Writing writing = resolveWriting(
-                writingResult.getText(),
-                writingResult.getOrder());
-            room.setWriting(writing);
-
-         } else if (result instanceof ConnectionsResult) {
-            // We've encountered a connections result
-            ConnectionsResult connectionsResult =
-                (ConnectionsResult) result;
-            List<String> roomIds =
-                connectionsResult.getConnections();
-            List<Room> connections = new ArrayList<>();
-            for (String roomId : roomIds) {
-               connections.add(resolveRoom(roomId));
-            }
-            room.setConnections(connections);
+   @Override
+   public void onCreate() {
+      super.onCreate();
+      mCheckpoint = new Checkpoint(getFilesDir());
+      mRoomCache = new RoomCache(getCacheDir());
+      mRoomSpill = new RoomSpill(getCacheDir());
+   }
 
-            // Any drones that are waiting in this room need to have
-            // their room paths updated with the new connections.
-            for (DroneTask task : mDroneTasks.values()) {
-               if (task.isRoomCurrent(room)) {
-                  task.addAll(connections);
-               }
-            }
-         } else if (result instanceof ErrorResult) {
-            ErrorResult errorResult = (ErrorResult) result;
-            if (DEBUG) {
-               Log.e(TAG, "Error: " + errorResult.getError());
-            }
-         }
+   @Override
+   public void onDestroy() {
+      super.onDestroy();
+      if (mSession != null) {
+         mSession.cancel();
+         mSession.close();
+         mSession = null;
+      }
+      mDispatcher.shutdownNow();
+      mDroneExecutor.shutdownNow();
+      try {
+         mCheckpoint.close();
+      } catch (IOException e) {
+         DebugLog.e(TAG, "Unable to close checkpoint", e);
       }
+   }
 
-      // Tell the task that spawned this request that we are no longer
-      // awaiting commands.
-      Drone drone = response.getDrone();
-      for (DroneTask task : mDroneTasks.values()) {
-         if (drone.equals(task.getDrone())) {
-            task.setBusy(false);
-            break;
-         }
+   @Override
+   public IBinder onBind(Intent intent) {
+      if (mBinder == null) {
+         mBinder = new GanymedeBinder();
       }
+      return mBinder;
    }
 
    /**
-    * Handles the response from a "report" HTTP request.
-    * @param response The HTTP response.
+    * Broadcasts the report of a finished session, and lets it go so that
+    * a new session can be started.
+    * @param session The session.
+    * @param response The "report" response.
     */
-   private void handleReportResponse(ReportResponse response) {
-      if (DEBUG) {
-         Log.d(TAG, "**************************************************");
-         Log.d(TAG, response.getResponse());
-         Log.d(TAG, "**************************************************");
-      }
-
+   @Override
+   public void onSessionFinished(
+       @NonNull final Session session,
+       @NonNull ReportResponse response) {
+      mMainHandler.post(new Runnable() {
+         @Override
+         public void run() {
+            if (session == mSession) {
+               mSession = null;
+               session.close();
+            }
+         }
+      });
       Intent intent = new Intent(ACTION_FINISHED);
       intent.putExtra(EXTRA_RESPONSE, response.getResponse());
       LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
    }
 
-   private void handleNotFoundResponse(NotFoundResponse response) {
-      if (DEBUG) {
-         Log.w(TAG, "404 Not Found encountered");
+   /**
+    * Cancels the current session, if there is one, and logs how long it
+    * takes to quiesce. A new session can be started straight away.
+    */
+   private void cancelSession() {
+      if (mSession == null) {
+         return;
       }
+      final Session session = mSession;
+      mSession = null;
+      session.cancel();
+      session.close();
+      mDispatcher.execute(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               long nanos = session.awaitQuiescence(
+                   QUIESCE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+               if (nanos < 0) {
+                  DebugLog.w(TAG, "Session didn't quiesce within %d s",
+                      QUIESCE_TIMEOUT_SECONDS);
+               } else {
+                  DebugLog.d(TAG, "Session quiesced in %d ms",
+                      TimeUnit.NANOSECONDS.toMillis(nanos));
+               }
+            } catch (InterruptedException e) {
+               // The service is being destroyed
+            }
+         }
+      });
    }
 
-   private void handleErrorResponse(ErrorResponse response) {
-      if (DEBUG) {
-         Log.e(TAG, "400 or other error encountered");
+   /**
+    * Creates a new session that sends its requests with the given transport,
+    * recording it to the given event log file.
+    * @param transport The transport.
+    * @param eventLogFile The event log file, in the files directory.
+    * @return The session.
+    */
+   private Session createSession(
+       @NonNull Transport transport,
+       @NonNull String eventLogFile) {
+      EventLog eventLog = null;
+      if (RECORD_EVENTS) {
+         try {
+            eventLog = new EventLog(new File(getFilesDir(), eventLogFile));
+            transport = new RecordingTransport(transport, eventLog);
+         } catch (IOException e) {
+            DebugLog.e(TAG, "Unable to open event log", e);
+         }
       }
+      Session session = new Session(transport, mDispatcher, this);
+      session.setDroneExecutor(mDroneExecutor);
+      session.setEventLog(eventLog);
+      return session;
    }
 
    /**
@@ -377,23 +264,68 @@ public class GanymedeService extends Service
     */
    public class GanymedeBinder extends Binder {
       public void start() {
-         if (mStarted) {
+         if (mSession != null) {
             return;
          }
-         mStarted = true;
-         mDrones.clear();
-         for (DroneTask task : mDroneTasks.values()) {
-            task.cancel(true);
+         mSession = createSession(mTransport, EVENT_LOG_FILE);
+         mSession.setCheckpoint(mCheckpoint);
+         mSession.setRoomCache(mRoomCache);
+         mSession.setRoomBudget(mRoomBudget, mRoomSpill);
+         mSession.start();
+      }
+
+      /**
+       * Runs a session recorded to the given event log again, answering
+       * every request from the log instead of the network. The session
+       * runs in deterministic mode, so replaying a log always sends the
+       * same requests in the same order. A replayed session stands alone;
+       * it neither uses nor affects the room cache or the checkpoint of
+       * real sessions.
+       * @param eventLog The recorded event log.
+       * @throws IOException
+       * @throws JSONException
+       */
+      public void replay(@NonNull File eventLog)
+          throws IOException, JSONException {
+         if (mSession != null) {
+            return;
+         }
+         ReplayTransport transport =
+             new ReplayTransport(EventLog.read(eventLog));
+         mSession = createSession(transport, REPLAY_LOG_FILE);
+         mSession.setDeterministic(REPLAY_SEED);
+         mSession.start();
+      }
+
+      /**
+       * Returns a snapshot of what each drone of the current session has
+       * done so far.
+       * @return The stats of every drone, or an empty list if there is no
+       * session.
+       */
+      @NonNull
+      public List<DroneStats> getDroneStats() {
+         if (mSession == null) {
+            return Collections.emptyList();
          }
-         mDroneTasks.clear();
-         mRooms.clear();
-         mWritings.clear();
-         mRequestManager.add(new StartRequest());
+         return mSession.getDroneStats();
+      }
+
+      /**
+       * Sets the number of rooms kept in memory before resolved rooms are
+       * compacted and spilled to disk. Takes effect on the next start.
+       * @param budget The number of rooms, or zero for no limit.
+       */
+      public void setRoomBudget(int budget) {
+         mRoomBudget = Math.max(budget, 0);
       }
 
+      /**
+       * Cancels the current session. Once it has been cancelled,
+       * {@link #start()} begins a new one.
+       */
       public void cancel() {
-         mRequestManager.reset();
-         mStarted = false;
+         cancelSession();
       }
    }
 }
@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
 import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.AppCompatActivity;
@@ -16,21 +17,46 @@ import android.widget.TextView;
 
 import com.slaterama.airtime.GanymedeService.GanymedeBinder;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * An {@link android.app.Activity} that really does nothing useful
- * other than shows a "Start" button for the whole proccess.
+ * other than shows a "Start" button for the whole proccess, and a live
+ * view of what each drone is doing.
  */
 public class MainActivity extends AppCompatActivity
       implements ServiceConnection {
 
    private static final String KEY_RESPONSE = "response";
 
+   /**
+    * How often the drone stats are refreshed while the activity is shown.
+    */
+   private static final long STATS_INTERVAL_MILLIS = 500;
+
    private TextView mStatusText;
    private Button mStartButton;
    private TextView mResponseText;
+   private TextView mStatsText;
 
    private GanymedeBinder mGanymedeBinder;
 
+   private final Handler mHandler = new Handler();
+
+   /**
+    * Shows the latest drone stats and schedules the next refresh.
+    */
+   private final Runnable mRefreshStats = new Runnable() {
+      @Override
+      public void run() {
+         if (mGanymedeBinder != null) {
+            showStats(mGanymedeBinder.getDroneStats());
+         }
+         mHandler.postDelayed(this, STATS_INTERVAL_MILLIS);
+      }
+   };
+
    private BroadcastReceiver mBroadcastReceiver =
        new BroadcastReceiver() {
           @Override
@@ -48,6 +74,7 @@ public class MainActivity extends AppCompatActivity
       mStatusText = (TextView) findViewById(R.id.status_txt);
       mStartButton = (Button) findViewById(R.id.start_btn);
       mResponseText = (TextView) findViewById(R.id.response_txt);
+      mStatsText = (TextView) findViewById(R.id.stats_txt);
 
       mStatusText.setText(R.string.main_connecting);
       mStartButton.setEnabled(false);
@@ -72,6 +99,7 @@ public class MainActivity extends AppCompatActivity
       IntentFilter filter = new IntentFilter(GanymedeService.ACTION_FINISHED);
       LocalBroadcastManager.getInstance(this)
           .registerReceiver(mBroadcastReceiver, filter);
+      mHandler.post(mRefreshStats);
    }
 
    @Override
@@ -81,6 +109,7 @@ public class MainActivity extends AppCompatActivity
 
       LocalBroadcastManager.getInstance(this)
           .unregisterReceiver(mBroadcastReceiver);
+      mHandler.removeCallbacks(mRefreshStats);
    }
 
    @Override
@@ -108,4 +137,31 @@ public class MainActivity extends AppCompatActivity
    public void onStartClicked(View view) {
       mGanymedeBinder.start();
    }
+
+   /**
+    * Shows one line per drone: what it has done, and how its time splits
+    * between working, waiting for results and idling.
+    * @param stats The stats of every drone.
+    */
+   private void showStats(List<DroneStats> stats) {
+      StringBuilder builder = new StringBuilder();
+      for (DroneStats drone : stats) {
+         long elapsed = Math.max(drone.getElapsedNanos(), 1);
+         if (builder.length() > 0) {
+            builder.append('\n');
+         }
+         builder.append(getString(
+             R.string.main_drone_stats,
+             drone.getDroneId(),
+             drone.getRole(),
+             drone.getCommandsSent(),
+             drone.getRoomsClaimed(),
+             drone.getDuplicateHits(),
+             (int) (100 * drone.getBusyNanos() / elapsed),
+             (int) (100 * drone.getWaitingNanos() / elapsed),
+             (int) (100 * drone.getIdleNanos() / elapsed),
+             TimeUnit.NANOSECONDS.toMillis(drone.getMeanInFlightNanos())));
+      }
+      mStatsText.setText(builder);
+   }
 }
@@ -1,36 +1,185 @@
 package com.slaterama.airtime;
 
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
-import android.support.v4.os.AsyncTaskCompat;
 
+import com.slaterama.airtime.http.Transport;
 import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.request.WarmUpRequest;
+import com.slaterama.airtime.http.response.ErrorResponse;
 import com.slaterama.airtime.http.response.HttpResponse;
+import com.slaterama.airtime.trace.DebugLog;
 
-import org.json.JSONException;
-
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * The main class that handles the HTTP request queue.
+ * The main class that handles the HTTP request queue. A request manager
+ * runs until it is {@link #shutdown()}; after that it accepts no more
+ * requests, so each session uses a new one.
+ * <p>
+ * The request loop runs on one of the dispatcher threads, so any number of
+ * request managers can run at once without waiting for a thread of their
+ * own, and it returns the thread when the manager is shut down.
  */
 public class RequestManager {
 
+   private static final String TAG = RequestManager.class.getSimpleName();
+
+   /**
+    * The number of times a request rejected by the server will be sent
+    * before we give up and pass the error along.
+    */
+   private static final int MAX_ATTEMPTS = 3;
+
+   /**
+    * The maximum number of requests that may be outstanding at once.
+    */
+   public static final int MAX_IN_FLIGHT = 8;
+
+   /**
+    * The number of queued requests beyond which producers are held back
+    * by {@link #awaitCapacity()}.
+    */
+   public static final int MAX_QUEUED = 2 * MAX_IN_FLIGHT;
+
+   /**
+    * How long warm-up threads wait for each other so that their
+    * connections are opened side by side rather than one after another.
+    */
+   private static final long WARM_UP_GATHER_MILLIS = 100;
+
    /**
     * The actual {@link Queue} of HTTP requests.
     */
    @NonNull
-   private final Queue<HttpRequest> mQueue;
+   private final Deque<HttpRequest> mQueue;
+
+   /**
+    * Loops through and processes HTTP requests on a dispatcher thread.
+    */
+   @NonNull
+   private final RequestLoop mRequestLoop;
+
+   /**
+    * Hands responses and errors to the listener on the main thread.
+    */
+   @NonNull
+   private final Handler mMainHandler;
+
+   /**
+    * Throttles the rate at which requests are sent to the server.
+    */
+   @NonNull
+   private final RequestThrottle mThrottle;
+
+   /**
+    * The {@link Transport} used to send requests.
+    */
+   @NonNull
+   private volatile Transport mTransport;
 
    /**
-    * The {@link AsyncTask} that will loop through and process HTTP requests.
+    * The threads that requests are actually sent on. These may be shared
+    * with other request managers.
     */
    @NonNull
-   private final RequestTask mRequestTask;
+   private final ExecutorService mDispatcher;
+
+   /**
+    * Limits the number of requests outstanding at once.
+    */
+   @NonNull
+   private final Semaphore mInFlight;
+
+   /**
+    * The total number of response body bytes received.
+    */
+   @NonNull
+   private final AtomicLong mBytesReceived;
+
+   /**
+    * The total number of read buffers allocated to receive responses.
+    */
+   @NonNull
+   private final AtomicLong mBufferAllocations;
+
+   /**
+    * The largest number of requests that have been queued at once.
+    */
+   private int mMaxQueueDepth;
+
+   /**
+    * The total time requests have spent between being queued and being
+    * sent, in nanoseconds.
+    */
+   @NonNull
+   private final AtomicLong mQueueWaitNanos;
+
+   /**
+    * The longest time a request has spent between being queued and being
+    * sent, in nanoseconds.
+    */
+   @NonNull
+   private final AtomicLong mMaxQueueWaitNanos;
+
+   /**
+    * The number of requests sent, counting each retry.
+    */
+   @NonNull
+   private final AtomicLong mSent;
+
+   /**
+    * The number of times a producer was held back by a full queue.
+    */
+   @NonNull
+   private final AtomicLong mBackpressureWaits;
+
+   /**
+    * Requests that have been taken off the queue and are being sent.
+    * Also the monitor that {@link #awaitQuiescence} waits on.
+    */
+   @NonNull
+   private final Set<HttpRequest> mActive;
+
+   /**
+    * Whether the request loop has been handed to the dispatcher.
+    */
+   private boolean mLoopStarted;
+
+   /**
+    * Whether the request loop is running.
+    */
+   private boolean mLooping;
+
+   /**
+    * The thread the request loop is running on, so that {@link #shutdown()}
+    * can interrupt a wait for the throttle, or null if it isn't running.
+    */
+   private Thread mLoopThread;
+
+   /**
+    * Whether this manager has been shut down.
+    */
+   private volatile boolean mShutdown;
+
+   /**
+    * Sends requests one at a time, in order, in deterministic mode, or null
+    * if requests are sent asynchronously.
+    */
+   private Sequencer mSequencer;
 
    /**
     * A listener that will listen for important messages from this manager.
@@ -38,10 +187,166 @@ public class RequestManager {
    @NonNull
    private final RequestListener mListener;
 
-   public RequestManager(@NonNull RequestListener listener) {
+   /**
+    * @param listener Receives responses and errors.
+    * @param transport The transport used to send requests.
+    * @param dispatcher The threads requests are sent on. At most
+    *                   {@link #MAX_IN_FLIGHT} of them are used at once.
+    */
+   public RequestManager(
+       @NonNull RequestListener listener,
+       @NonNull Transport transport,
+       @NonNull ExecutorService dispatcher) {
       mListener = listener;
       mQueue = new LinkedList<>();
-      mRequestTask = new RequestTask();
+      mRequestLoop = new RequestLoop();
+      mMainHandler = new Handler(Looper.getMainLooper());
+      mThrottle = new RequestThrottle();
+      mTransport = transport;
+      mDispatcher = dispatcher;
+      mInFlight = new Semaphore(MAX_IN_FLIGHT);
+      mBytesReceived = new AtomicLong();
+      mBufferAllocations = new AtomicLong();
+      mQueueWaitNanos = new AtomicLong();
+      mMaxQueueWaitNanos = new AtomicLong();
+      mSent = new AtomicLong();
+      mBackpressureWaits = new AtomicLong();
+      mActive = new HashSet<>();
+   }
+
+   /**
+    * Sets the {@link Transport} used to send subsequent requests.
+    * @param transport The transport.
+    */
+   public void setTransport(@NonNull Transport transport) {
+      mTransport = transport;
+   }
+
+   /**
+    * Sends requests in deterministic mode: each request becomes an event
+    * on the given sequencer, which sends it and hands the response to the
+    * listener on the sequencer's thread. This must be called before any
+    * requests are added.
+    * @param sequencer The sequencer.
+    */
+   public void setSequencer(Sequencer sequencer) {
+      mSequencer = sequencer;
+   }
+
+   @NonNull
+   public RequestThrottle getThrottle() {
+      return mThrottle;
+   }
+
+   /**
+    * Returns the total number of response body bytes received.
+    * @return The number of bytes.
+    */
+   public long getBytesReceived() {
+      return mBytesReceived.get();
+   }
+
+   /**
+    * Returns the total number of read buffers allocated to receive
+    * responses. Once the pooled buffers have grown to fit the responses,
+    * this should stop increasing.
+    * @return The number of buffer allocations.
+    */
+   public long getBufferAllocations() {
+      return mBufferAllocations.get();
+   }
+
+   /**
+    * Returns the number of requests currently waiting to be sent.
+    * @return The queue depth.
+    */
+   public int getQueueDepth() {
+      synchronized (mQueue) {
+         return mQueue.size();
+      }
+   }
+
+   /**
+    * Returns the largest number of requests that have waited to be sent at
+    * once.
+    * @return The maximum queue depth.
+    */
+   public int getMaxQueueDepth() {
+      synchronized (mQueue) {
+         return mMaxQueueDepth;
+      }
+   }
+
+   /**
+    * Returns the average time requests have spent waiting to be sent, from
+    * being queued until they go out. This includes waiting for an in-flight
+    * slot and for the throttle, not just time in the queue.
+    * @return The mean queue wait, in nanoseconds.
+    */
+   public long getMeanQueueWaitNanos() {
+      long sent = mSent.get();
+      return sent == 0 ? 0 : mQueueWaitNanos.get() / sent;
+   }
+
+   /**
+    * Returns the longest time a request has spent waiting to be sent.
+    * @return The maximum queue wait, in nanoseconds.
+    */
+   public long getMaxQueueWaitNanos() {
+      return mMaxQueueWaitNanos.get();
+   }
+
+   /**
+    * Returns the number of times a producer was held back because the
+    * queue was full.
+    * @return The number of waits.
+    */
+   public long getBackpressureWaits() {
+      return mBackpressureWaits.get();
+   }
+
+   /**
+    * Returns whether the queue holds {@link #MAX_QUEUED} requests or more,
+    * i.e. whether {@link #awaitCapacity()} would block.
+    * @return Whether the queue is full.
+    */
+   public boolean isSaturated() {
+      if (mSequencer != null) {
+         return false;
+      }
+      synchronized (mQueue) {
+         return mQueue.size() >= MAX_QUEUED;
+      }
+   }
+
+   /**
+    * Blocks the calling thread while the queue holds {@link #MAX_QUEUED}
+    * requests or more. Producers that can wait (i.e. drones) call this
+    * before adding requests, so that when the network slows down they
+    * stop producing rather than letting the queue, and the time requests
+    * spend in it, grow without bound. Requests are never refused, so
+    * callers that mustn't block can still add them. This never blocks the
+    * main thread, which the queue's responses are delivered on. In
+    * deterministic mode it never blocks either, since the queue only
+    * drains when the caller yields.
+    */
+   public void awaitCapacity() {
+      if (mSequencer != null || Looper.myLooper() == Looper.getMainLooper()) {
+         return;
+      }
+      synchronized (mQueue) {
+         if (mQueue.size() < MAX_QUEUED) {
+            return;
+         }
+         mBackpressureWaits.incrementAndGet();
+         while (mQueue.size() >= MAX_QUEUED && !mShutdown) {
+            try {
+               mQueue.wait();
+            } catch (InterruptedException e) {
+               // Ignore interruptions
+            }
+         }
+      }
    }
 
    /**
@@ -59,21 +364,38 @@ public class RequestManager {
     * @return
     */
    public boolean addAll(Collection<HttpRequest> requests) {
-      AsyncTask.Status status = mRequestTask.getStatus();
-      if (status == AsyncTask.Status.FINISHED) {
+      if (mShutdown) {
          return false;
       }
+      if (mSequencer != null) {
+         synchronized (mQueue) {
+            enqueue(requests);
+         }
+         for (int i = 0; i < requests.size(); i++) {
+            mSequencer.execute(mSendNext);
+         }
+         return !requests.isEmpty();
+      }
 
-      boolean changed ;
+      boolean changed;
+      boolean startLoop;
       synchronized (mQueue) {
-         changed = mQueue.addAll(requests);
+         changed = enqueue(requests);
          if (changed) {
-            mQueue.notify();
+            mQueue.notifyAll();
          }
+         startLoop = !mLoopStarted;
+         mLoopStarted = true;
       }
 
-      if (status == AsyncTask.Status.PENDING) {
-         AsyncTaskCompat.executeParallel(mRequestTask);
+      if (startLoop) {
+         try {
+            mDispatcher.execute(mRequestLoop);
+         } catch (RejectedExecutionException e) {
+            // The dispatcher has been shut down, so nothing can be sent
+            shutdown();
+            return false;
+         }
       }
       return changed;
    }
@@ -81,50 +403,381 @@ public class RequestManager {
    public void reset() {
       synchronized (mQueue) {
          mQueue.clear();
+         mQueue.notifyAll();
       }
    }
 
-   private class RequestTask
-       extends AsyncTask<Void, HttpResponse, Void> {
+   /**
+    * Opens up to the given number of connections to the server at once
+    * (but no more than {@link #MAX_IN_FLIGHT}), each on a dispatcher
+    * thread of its own, without blocking the caller. The dispatcher
+    * threads and the kept-alive connections are then ready for the first
+    * requests. Failures are ignored. Nothing is sent in deterministic
+    * mode.
+    * @param connections The number of connections to open.
+    */
+   public void warmUp(int connections) {
+      if (mSequencer != null || mShutdown) {
+         return;
+      }
+      final int count = Math.min(connections, MAX_IN_FLIGHT);
+      final CountDownLatch gathered = new CountDownLatch(count);
+      for (int i = 0; i < count; i++) {
+         mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+               gathered.countDown();
+               try {
+                  gathered.await(WARM_UP_GATHER_MILLIS, TimeUnit.MILLISECONDS);
+                  mTransport.send(new WarmUpRequest());
+               } catch (Exception e) {
+                  // The connection is only an optimization
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * Stops this manager for good: queued requests are dropped, requests
+    * being sent are aborted, and the request loop exits, returning its
+    * dispatcher thread. Responses and errors that arrive afterwards are not
+    * passed to the listener.
+    */
+   public void shutdown() {
+      synchronized (mQueue) {
+         mShutdown = true;
+         mQueue.clear();
+         mQueue.notifyAll();
+      }
+      HttpRequest[] active;
+      synchronized (mActive) {
+         if (mLoopThread != null) {
+            mLoopThread.interrupt();
+         }
+         active = mActive.toArray(new HttpRequest[mActive.size()]);
+      }
+      for (HttpRequest request : active) {
+         request.abort();
+      }
+   }
+
+   /**
+    * Waits until, after {@link #shutdown()}, the request loop has exited
+    * and no requests are being sent.
+    * @param timeout The longest time to wait.
+    * @param unit The unit of the timeout.
+    * @return Whether this manager has quiesced.
+    * @throws InterruptedException
+    */
+   public boolean awaitQuiescence(long timeout, @NonNull TimeUnit unit)
+       throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      synchronized (mActive) {
+         while (mLooping || !mActive.isEmpty()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+               return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(mActive, remaining);
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Marks a request as being sent, unless this manager has been shut
+    * down.
+    * @param request The request.
+    * @return Whether the request should be sent.
+    */
+   private boolean activate(@NonNull HttpRequest request) {
+      synchronized (mActive) {
+         if (mShutdown) {
+            return false;
+         }
+         mActive.add(request);
+         return true;
+      }
+   }
+
+   /**
+    * Marks a request as no longer being sent.
+    * @param request The request.
+    */
+   private void deactivate(@NonNull HttpRequest request) {
+      synchronized (mActive) {
+         mActive.remove(request);
+         mActive.notifyAll();
+      }
+   }
+
+   /**
+    * Adds requests to the end of the queue, stamping each with the time it
+    * was queued. Must be called while synchronized on {@link #mQueue}.
+    * @param requests The requests.
+    * @return Whether any requests were added.
+    */
+   private boolean enqueue(@NonNull Collection<HttpRequest> requests) {
+      long now = System.nanoTime();
+      for (HttpRequest request : requests) {
+         request.setQueuedNanos(now);
+      }
+      boolean changed = mQueue.addAll(requests);
+      mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+      return changed;
+   }
+
+   /**
+    * Takes the request at the head of the queue, waking any producers held
+    * back by a full queue. Must be called while synchronized on
+    * {@link #mQueue}.
+    * @return The request, or null if the queue is empty.
+    */
+   private HttpRequest dequeue() {
+      HttpRequest request = mQueue.poll();
+      if (request == null) {
+         return null;
+      }
+      if (mQueue.size() == MAX_QUEUED - 1) {
+         mQueue.notifyAll();
+      }
+      return request;
+   }
+
+   /**
+    * Records how long a request waited between being queued and being
+    * sent. Called just before the request goes out.
+    * @param request The request.
+    */
+   private void recordQueueWait(@NonNull HttpRequest request) {
+      long wait = System.nanoTime() - request.getQueuedNanos();
+      mQueueWaitNanos.addAndGet(wait);
+      mSent.incrementAndGet();
+      long max = mMaxQueueWaitNanos.get();
+      while (wait > max && !mMaxQueueWaitNanos.compareAndSet(max, wait)) {
+         max = mMaxQueueWaitNanos.get();
+      }
+   }
+
+   /**
+    * Sends the request at the head of the queue and waits for the response,
+    * retrying a rejected request straight away so that the order of
+    * requests doesn't change. Used in deterministic mode.
+    */
+   private final Runnable mSendNext = new Runnable() {
+      @Override
+      public void run() {
+         HttpRequest request;
+         synchronized (mQueue) {
+            request = dequeue();
+         }
+         if (request == null || !activate(request)) {
+            return;
+         }
+
+         HttpResponse response;
+         try {
+            do {
+               mThrottle.acquire();
+               recordQueueWait(request);
+               response = request.getResponse(mTransport);
+               mBytesReceived.addAndGet(request.getResponseBytes());
+               mBufferAllocations.addAndGet(request.getBufferAllocations());
+               if (response instanceof ErrorResponse) {
+                  mThrottle.onRejected();
+                  request.setQueuedNanos(System.nanoTime());
+               } else {
+                  mThrottle.onAccepted(request.getLatencyNanos());
+               }
+            } while (response instanceof ErrorResponse
+                && request.getAttempts() < MAX_ATTEMPTS);
+         } catch (Exception e) {
+            mThrottle.onRejected();
+            if (!mShutdown) {
+               mListener.onRequestError(request, e);
+            }
+            return;
+         } finally {
+            deactivate(request);
+         }
+         if (!mShutdown) {
+            mListener.onRequestResponse(response);
+         }
+      }
+   };
+
+   /**
+    * Hands a response to the listener on the main thread, unless this
+    * manager has been shut down by the time it gets there.
+    * @param response The response.
+    */
+   private void postResponse(@NonNull final HttpResponse response) {
+      mMainHandler.post(new Runnable() {
+         @Override
+         public void run() {
+            if (!mShutdown) {
+               mListener.onRequestResponse(response);
+            }
+         }
+      });
+   }
+
+   /**
+    * Hands an error to the listener on the main thread, unless this
+    * manager has been shut down by the time it gets there.
+    * @param request The request that failed.
+    * @param e The error.
+    */
+   private void postError(
+       @NonNull final HttpRequest request,
+       @NonNull final Exception e) {
+      mMainHandler.post(new Runnable() {
+         @Override
+         public void run() {
+            if (!mShutdown) {
+               mListener.onRequestError(request, e);
+            }
+         }
+      });
+   }
+
+   /**
+    * Loops through the request queue, handing each request off to the
+    * dispatcher as soon as the throttle and the in-flight limit allow.
+    * Responses are published back on the main thread as they complete,
+    * in whatever order that happens. The loop runs until this manager is
+    * shut down.
+    */
+   private class RequestLoop
+       implements Runnable, HttpRequest.ResponseCallback {
 
       @Override
-      protected Void doInBackground(Void... voids) {
+      public void run() {
+         synchronized (mActive) {
+            if (mShutdown) {
+               return;
+            }
+            mLooping = true;
+            mLoopThread = Thread.currentThread();
+         }
+         try {
+            loop();
+         } finally {
+            synchronized (mActive) {
+               mLooping = false;
+               mLoopThread = null;
+               mActive.notifyAll();
+            }
+            // Don't leave an interrupt from shutdown() on a pooled thread
+            Thread.interrupted();
+         }
+      }
+
+      private void loop() {
          HttpRequest request;
 
-         while (!isCancelled()) {
+         while (!mShutdown) {
             synchronized (mQueue) {
-               while (mQueue.isEmpty()) {
+               while (mQueue.isEmpty() && !mShutdown) {
                   try {
                      mQueue.wait();
                   } catch (InterruptedException e) {
-                     // Ignore interruptions
+                     // Ignore interruptions; shutdown() notifies us
                   }
                }
+               if (mShutdown) {
+                  return;
+               }
 
-               request = mQueue.poll();
+               request = dequeue();
             }
 
+            mInFlight.acquireUninterruptibly();
             try {
-               final HttpResponse response = request.getResponse();
-               publishProgress(response);
-            } catch (IOException | JSONException e) {
-               e.printStackTrace();
-               mListener.onRequestError(e);
+               mThrottle.acquire();
+            } catch (InterruptedException e) {
+               // Interrupted by shutdown(); the check below will see it
+            }
+
+            if (!activate(request)) {
+               mInFlight.release();
+               return;
             }
+            recordQueueWait(request);
+            request.getResponseAsync(mTransport, mDispatcher, this);
          }
+      }
 
-         return null;
+      /**
+       * Called on a dispatcher thread when a request completes.
+       * @param request The request.
+       * @param response The response.
+       */
+      @Override
+      public void onResponse(
+          @NonNull HttpRequest request,
+          @NonNull HttpResponse response) {
+         mInFlight.release();
+         deactivate(request);
+         if (mShutdown) {
+            return;
+         }
+         mBytesReceived.addAndGet(request.getResponseBytes());
+         mBufferAllocations.addAndGet(request.getBufferAllocations());
+         if (response instanceof ErrorResponse) {
+            // The server rejected the request; back off and,
+            // if we haven't tried too many times, try again.
+            mThrottle.onRejected();
+            if (request.getAttempts() < MAX_ATTEMPTS) {
+               retry(request);
+               return;
+            }
+         } else {
+            mThrottle.onAccepted(request.getLatencyNanos());
+         }
+         postResponse(response);
       }
 
+      /**
+       * Called on a dispatcher thread when a request fails.
+       * @param request The request.
+       * @param e The error.
+       */
       @Override
-      protected void onProgressUpdate(HttpResponse... values) {
-         HttpResponse response = values[0];
-         mListener.onRequestResponse(response);
+      public void onError(@NonNull HttpRequest request, @NonNull Exception e) {
+         mInFlight.release();
+         deactivate(request);
+         if (mShutdown) {
+            return;
+         }
+         DebugLog.e(TAG, "Request failed", e);
+         mThrottle.onRejected();
+         postError(request, e);
+      }
+
+      /**
+       * Puts a rejected request back at the head of the queue.
+       * @param request The request to retry.
+       */
+      private void retry(@NonNull HttpRequest request) {
+         synchronized (mQueue) {
+            request.setQueuedNanos(System.nanoTime());
+            mQueue.offerFirst(request);
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+            mQueue.notifyAll();
+         }
       }
    }
 
+   /**
+    * An interface that receives the outcome of each request. A request
+    * that fails outright, or that the server keeps rejecting, is passed to
+    * {@link #onRequestError} or as an {@link ErrorResponse} respectively, so
+    * that whoever sent it can recover.
+    */
    public interface RequestListener {
       void onRequestResponse(HttpResponse response);
-      void onRequestError(Exception e);
+      void onRequestError(@NonNull HttpRequest request, Exception e);
    }
 }
@@ -0,0 +1,136 @@
+package com.slaterama.airtime;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that sits in front of the request queue. The refill rate
+ * adapts to what the server tells us (AIMD-style): every request that comes
+ * back quickly and successfully nudges the rate up by a fixed amount, while
+ * every rejection (400 or I/O error) or slow response cuts it down by a
+ * multiplicative factor. This lets us find the sustained rate the server
+ * will accept without repeatedly tripping its limits.
+ */
+public class RequestThrottle {
+
+   private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+   /**
+    * The rate (in requests per second) we start out at.
+    */
+   private static final double INITIAL_RATE = 10.0;
+
+   /**
+    * The lowest rate we will ever throttle down to.
+    */
+   private static final double MIN_RATE = 1.0;
+
+   /**
+    * The highest rate we will ever throttle up to.
+    */
+   private static final double MAX_RATE = 500.0;
+
+   /**
+    * How much the rate grows after each successful request.
+    */
+   private static final double ADDITIVE_INCREASE = 1.0;
+
+   /**
+    * How much the rate shrinks after a rejected request.
+    */
+   private static final double MULTIPLICATIVE_DECREASE = 0.5;
+
+   /**
+    * How much the rate shrinks after a successful but slow request.
+    */
+   private static final double LATENCY_DECREASE = 0.9;
+
+   /**
+    * Responses slower than this are taken as a sign that the server is
+    * starting to queue our requests.
+    */
+   private static final long TARGET_LATENCY_NANOS =
+       TimeUnit.MILLISECONDS.toNanos(500);
+
+   /**
+    * The number of tokens (i.e. requests) that can be spent in a burst.
+    */
+   private static final double BURST = 5.0;
+
+   /**
+    * The current refill rate, in tokens per second.
+    */
+   private double mRate;
+
+   /**
+    * The number of tokens currently in the bucket.
+    */
+   private double mTokens;
+
+   /**
+    * The last time (in nanoseconds) the bucket was refilled.
+    */
+   private long mLastRefill;
+
+   public RequestThrottle() {
+      mRate = INITIAL_RATE;
+      mTokens = BURST;
+      mLastRefill = System.nanoTime();
+   }
+
+   /**
+    * Returns the current refill rate in requests per second.
+    * @return The current rate.
+    */
+   public synchronized double getRate() {
+      return mRate;
+   }
+
+   /**
+    * Blocks until a token is available, then consumes it.
+    * @throws InterruptedException If the calling thread is interrupted while
+    * waiting for a token.
+    */
+   public synchronized void acquire() throws InterruptedException {
+      refill();
+      while (mTokens < 1.0) {
+         long waitNanos = (long) ((1.0 - mTokens) * NANOS_PER_SECOND / mRate);
+         TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, 1));
+         refill();
+      }
+      mTokens -= 1.0;
+   }
+
+   /**
+    * Called when a request was accepted by the server.
+    * @param latencyNanos How long the request took, in nanoseconds.
+    */
+   public synchronized void onAccepted(long latencyNanos) {
+      if (latencyNanos > TARGET_LATENCY_NANOS) {
+         setRate(mRate * LATENCY_DECREASE);
+      } else {
+         setRate(mRate + ADDITIVE_INCREASE);
+      }
+   }
+
+   /**
+    * Called when a request was rejected by the server (or failed outright).
+    */
+   public synchronized void onRejected() {
+      setRate(mRate * MULTIPLICATIVE_DECREASE);
+      // Drain the bucket so the back-off takes effect immediately
+      mTokens = Math.min(mTokens, 0.0);
+   }
+
+   private void setRate(double rate) {
+      refill();
+      mRate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+      notifyAll();
+   }
+
+   private void refill() {
+      long now = System.nanoTime();
+      double elapsed = (double) (now - mLastRefill) / NANOS_PER_SECOND;
+      mTokens = Math.min(BURST, mTokens + elapsed * mRate);
+      mLastRefill = now;
+   }
+}
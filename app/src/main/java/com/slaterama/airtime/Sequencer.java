@@ -0,0 +1,251 @@
+package com.slaterama.airtime;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A discrete-event executor that makes a session deterministic. Exactly one
+ * party runs at a time: either a drone holding the turn, or an event (i.e.
+ * sending a request and handling its response) run on the sequencer's own
+ * thread. Drones keep their own threads, since they block in the middle of
+ * the exploration algorithm, but they only ever run while holding the turn.
+ * <p>
+ * The turn is handed on whenever its holder blocks or finishes: first to
+ * drones that have been marked ready, in the order they were marked, then
+ * to queued events, in the order they were queued. Since only the holder
+ * can mark drones ready or queue events, the whole run happens in the same
+ * order every time.
+ */
+public class Sequencer implements Executor {
+
+   /**
+    * The party that holds the turn while an event runs.
+    */
+   private static final Object EVENT_LOOP = new Object();
+
+   @NonNull
+   private final ReentrantLock mLock;
+
+   /**
+    * Signalled whenever the turn changes hands.
+    */
+   @NonNull
+   private final Condition mTurnChanged;
+
+   /**
+    * Parties waiting for the turn, in the order they were marked ready.
+    */
+   @NonNull
+   private final Queue<Object> mReady;
+
+   /**
+    * Events waiting to run, in the order they were queued.
+    */
+   @NonNull
+   private final Queue<Runnable> mEvents;
+
+   /**
+    * Parties that have left and must not be given the turn again.
+    */
+   @NonNull
+   private final Set<Object> mLeft;
+
+   /**
+    * The party holding the turn, or null if nobody is.
+    */
+   private Object mHolder;
+
+   /**
+    * The thread events run on, or null if it hasn't been started.
+    */
+   private Thread mEventThread;
+
+   /**
+    * Whether the sequencer has been shut down.
+    */
+   private boolean mShutdown;
+
+   public Sequencer() {
+      mLock = new ReentrantLock();
+      mTurnChanged = mLock.newCondition();
+      mReady = new LinkedList<>();
+      mEvents = new LinkedList<>();
+      mLeft = new HashSet<>();
+   }
+
+   /**
+    * Queues an event to run on the sequencer's thread once no drone is
+    * ready to run.
+    * @param event The event.
+    */
+   @Override
+   public void execute(@NonNull Runnable event) {
+      mLock.lock();
+      try {
+         if (mShutdown) {
+            return;
+         }
+         mEvents.offer(event);
+         if (mEventThread == null) {
+            mEventThread = new Thread(new Runnable() {
+               @Override
+               public void run() {
+                  runEvents();
+               }
+            }, "Sequencer");
+            mEventThread.setDaemon(true);
+            mEventThread.start();
+         }
+         if (mHolder == null) {
+            passTurn();
+         }
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Marks a party as ready to run. This is a no-op if the party holds the
+    * turn, is already waiting for it, or has left.
+    * @param party The party.
+    */
+   public void ready(@NonNull Object party) {
+      mLock.lock();
+      try {
+         if (mShutdown
+             || party == mHolder
+             || mLeft.contains(party)
+             || mReady.contains(party)) {
+            return;
+         }
+         mReady.offer(party);
+         if (mHolder == null) {
+            passTurn();
+         }
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Waits until the given party holds the turn. The party must already
+    * have been marked {@link #ready}.
+    * @param party The party.
+    */
+   public void awaitTurn(@NonNull Object party) {
+      mLock.lock();
+      try {
+         while (mHolder != party && !mShutdown) {
+            mTurnChanged.awaitUninterruptibly();
+         }
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Hands the turn on and waits until the given party gets it back, which
+    * happens once some other party marks it ready.
+    * @param party The party holding the turn.
+    */
+   public void yield(@NonNull Object party) {
+      mLock.lock();
+      try {
+         if (mHolder == party) {
+            passTurn();
+         }
+         while (mHolder != party && !mShutdown) {
+            mTurnChanged.awaitUninterruptibly();
+         }
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Removes a party for good, handing the turn on if it holds it.
+    * @param party The party.
+    */
+   public void leave(@NonNull Object party) {
+      mLock.lock();
+      try {
+         mLeft.add(party);
+         mReady.remove(party);
+         if (mHolder == party) {
+            passTurn();
+         }
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Stops the sequencer. Waiting parties are released and queued events
+    * are dropped.
+    */
+   public void shutdown() {
+      mLock.lock();
+      try {
+         mShutdown = true;
+         mReady.clear();
+         mEvents.clear();
+         mHolder = null;
+         mTurnChanged.signalAll();
+      } finally {
+         mLock.unlock();
+      }
+   }
+
+   /**
+    * Gives the turn to the next ready party or, failing that, to the next
+    * event. Must be called with the lock held.
+    */
+   private void passTurn() {
+      if (!mReady.isEmpty()) {
+         mHolder = mReady.poll();
+      } else if (!mEvents.isEmpty()) {
+         mHolder = EVENT_LOOP;
+      } else {
+         mHolder = null;
+      }
+      mTurnChanged.signalAll();
+   }
+
+   private void runEvents() {
+      while (true) {
+         Runnable event;
+         mLock.lock();
+         try {
+            while (mHolder != EVENT_LOOP && !mShutdown) {
+               mTurnChanged.awaitUninterruptibly();
+            }
+            if (mShutdown) {
+               return;
+            }
+            event = mEvents.poll();
+         } finally {
+            mLock.unlock();
+         }
+
+         try {
+            event.run();
+         } finally {
+            mLock.lock();
+            try {
+               if (mHolder == EVENT_LOOP) {
+                  passTurn();
+               }
+            } finally {
+               mLock.unlock();
+            }
+         }
+      }
+   }
+}
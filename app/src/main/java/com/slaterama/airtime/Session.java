@@ -0,0 +1,1553 @@
+package com.slaterama.airtime;
+
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.SparseArray;
+
+import com.slaterama.airtime.frontier.FrontierStrategy;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.request.CommandsRequest;
+import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.request.ReportRequest;
+import com.slaterama.airtime.http.request.StartRequest;
+import com.slaterama.airtime.http.response.CommandsResponse;
+import com.slaterama.airtime.http.response.CommandsResponse.ConnectionsResult;
+import com.slaterama.airtime.http.response.CommandsResponse.ErrorResult;
+import com.slaterama.airtime.http.response.CommandsResponse.Result;
+import com.slaterama.airtime.http.response.CommandsResponse.WritingResult;
+import com.slaterama.airtime.http.response.ErrorResponse;
+import com.slaterama.airtime.http.response.HttpResponse;
+import com.slaterama.airtime.http.response.NotFoundResponse;
+import com.slaterama.airtime.http.response.ReportResponse;
+import com.slaterama.airtime.http.response.StartResponse;
+import com.slaterama.airtime.model.Command;
+import com.slaterama.airtime.model.Drone;
+import com.slaterama.airtime.model.Room;
+import com.slaterama.airtime.model.RoomTable;
+import com.slaterama.airtime.model.Writing;
+import com.slaterama.airtime.persist.Checkpoint;
+import com.slaterama.airtime.persist.RoomCache;
+import com.slaterama.airtime.persist.RoomSpill;
+import com.slaterama.airtime.trace.DebugLog;
+import com.slaterama.airtime.trace.EventLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.slaterama.airtime.model.Writing.INVALID_WRITING;
+
+/**
+ * A single exploration of a maze: its drones, the rooms they discover, the
+ * requests they send and the writings that make up the report. A session
+ * holds no global state, so any number of sessions can run side by side,
+ * sharing a {@link Transport} and a request dispatcher. The on-disk stores
+ * (checkpoint, room cache, room spill and event log) are optional, since
+ * only one session at a time can own each of them.
+ */
+public class Session
+   implements RequestManager.RequestListener,
+              DroneTask.DroneTaskListener {
+
+   private static final String TAG = Session.class.getSimpleName();
+
+   /**
+    * Logs a sample of the (very frequent) responses received.
+    */
+   private static final DebugLog.Sampler RESPONSE_LOG =
+       new DebugLog.Sampler(100);
+
+   /**
+    * Logs a sample of the (very frequent) room creations.
+    */
+   private static final DebugLog.Sampler ROOM_LOG =
+       new DebugLog.Sampler(1000);
+
+   /**
+    * The number of "commands" responses between drone frontier checkpoints.
+    */
+   private static final int CHECKPOINT_INTERVAL = 10;
+
+   /**
+    * The number of checkpoint records appended before the checkpoint log
+    * is compacted.
+    */
+   private static final int COMPACT_THRESHOLD = 2000;
+
+   /**
+    * Whether to spot-check a sample of cached rooms against the server.
+    */
+   private static final boolean VALIDATE_CACHE = true;
+
+   /**
+    * The fraction of cached rooms that are re-queried when validating
+    * the room cache.
+    */
+   private static final double CACHE_SAMPLE_RATE = 0.05;
+
+   /**
+    * The fraction of drones dedicated to reading rooms rather than
+    * exploring them. At least one drone always explores; if no drones are
+    * readers, every drone both explores and reads.
+    */
+   private static final double READER_FRACTION = 0.25;
+
+   /**
+    * The priority a {@link FrontierStrategy.Type#BEST_FIRST} frontier
+    * gives to rooms found through a room with valid writing, on top of the
+    * number of unexplored rooms they were found alongside.
+    */
+   private static final int WRITING_PRIORITY = 8;
+
+   /**
+    * Whether drones skip over rooms that are already resolved (i.e.
+    * preloaded from the room cache) and go straight to the nearest rooms
+    * that still need querying.
+    */
+   private static final boolean SKIP_RESOLVED = true;
+
+   /**
+    * Whether the start room's commands are sent as soon as the "start"
+    * response arrives, and connections to the server are opened for the
+    * drones while they wait.
+    */
+   private static final boolean WARM_START = true;
+
+   /**
+    * Class that manages HTTP requests.
+    */
+   @NonNull
+   private final RequestManager mRequestManager;
+
+   /**
+    * Receives the report once the session completes.
+    */
+   @NonNull
+   private final SessionListener mListener;
+
+   /**
+    * Whether {@link #start()} has been called.
+    */
+   private boolean mStarted;
+
+   /**
+    * Whether the report has come back.
+    */
+   private boolean mFinished;
+
+   /**
+    * A collection of all drones currently in play.
+    */
+   @NonNull
+   private final Map<String, Drone> mDrones;
+
+   /**
+    * A collection of all drone tasks currently running.
+    */
+   @NonNull
+   private final Map<String, DroneTask> mDroneTasks;
+
+   /**
+    * Every drone task this session has created, including finished ones,
+    * so their stats can be read from any thread.
+    */
+   @NonNull
+   private final List<DroneTask> mAllDroneTasks;
+
+   /**
+    * Partitions the rooms among the drone tasks as they are discovered.
+    */
+   @NonNull
+   private final DroneScheduler mScheduler;
+
+   /**
+    * All rooms currently known by the system, in the order they were
+    * found. Compacted checkpoints are written in this order, so a resumed
+    * session walks the rooms in the same order too. Rooms compacted to stay
+    * within {@link #mRoomBudget} are dropped from memory, and the table
+    * keeps just their ids.
+    */
+   @NonNull
+   private final RoomTable mRoomTable;
+
+   /**
+    * The number of rooms kept in memory before resolved rooms are
+    * compacted, or zero if memory is unbounded.
+    */
+   private int mRoomBudget;
+
+   /**
+    * The number of rooms that must be in memory before rooms are next
+    * compacted.
+    */
+   private int mNextCompaction;
+
+   /**
+    * Rooms compacted out of memory, kept on disk for the room cache, or
+    * null if rooms are never compacted.
+    */
+   private RoomSpill mRoomSpill;
+
+   /**
+    * A collection of all valid writings discovered by the drones. This is
+    * where a room's writing lives once the room itself has been compacted.
+    */
+   @NonNull
+   private final SparseArray<Writing> mWritings;
+
+   /**
+    * The start room id of the current session.
+    */
+   private String mStartRoomId;
+
+   /**
+    * The ids of all drones in the current session.
+    */
+   @NonNull
+   private List<String> mDroneIds;
+
+   /**
+    * A periodic snapshot of the session, so it can be resumed if the
+    * process dies, or null if the session isn't checkpointed.
+    */
+   private Checkpoint mCheckpoint;
+
+   /**
+    * The number of "commands" responses handled since the last frontier
+    * checkpoint.
+    */
+   private int mResponsesSinceCheckpoint;
+
+   /**
+    * Rooms from previous runs against the same maze, or null if the session
+    * doesn't use the room cache.
+    */
+   private RoomCache mRoomCache;
+
+   /**
+    * Cached rooms that were deliberately left for the drones to query, so
+    * their results can be checked against the cache. Keyed by room id.
+    */
+   @NonNull
+   private final Map<String, RoomCache.Entry> mCacheSamples;
+
+   /**
+    * Whether the rooms of this session may be saved to the room cache.
+    * This is cleared if a cached room turns out not to match the server.
+    */
+   private boolean mCacheValid;
+
+   /**
+    * Runs the session deterministically, or null if it runs freely.
+    */
+   private Sequencer mSequencer;
+
+   /**
+    * The seed the drones' random number generators are derived from in
+    * deterministic mode.
+    */
+   private long mSeed;
+
+   /**
+    * The log the current session is being recorded to, if any.
+    */
+   private EventLog mEventLog;
+
+   /**
+    * The order in which each drone visits its rooms.
+    */
+   @NonNull
+   private FrontierStrategy.Type mFrontierType;
+
+   /**
+    * The threads the drone tasks run on, or null if the drones haven't
+    * started and no shared executor was given.
+    */
+   private DroneExecutor mDroneExecutor;
+
+   /**
+    * Whether this session created {@link #mDroneExecutor}, and so must
+    * shut it down.
+    */
+   private boolean mOwnsDroneExecutor;
+
+   /**
+    * Runs drone tasks on {@link #mDroneExecutor}, keeping count of the
+    * ones that are running. Also the monitor that count is guarded by.
+    */
+   @NonNull
+   private final DroneRunner mDroneRunner;
+
+   /**
+    * When the session was cancelled or finished, from
+    * {@link System#nanoTime()}, or zero if it has been neither.
+    */
+   private volatile long mStopNanos;
+
+   /**
+    * Whether resolved rooms are skipped rather than walked by the drones.
+    */
+   private boolean mSkipResolved;
+
+   /**
+    * Whether the start phase is sped up; see {@link #setWarmStart}.
+    */
+   private boolean mWarmStart;
+
+   /**
+    * The most commands each drone sends in one request.
+    */
+   private int mBatchSize;
+
+   /**
+    * The number of frontier rooms each drone batches into one request.
+    */
+   private int mLookahead;
+
+   /**
+    * The total number of commands sent.
+    */
+   @NonNull
+   private final AtomicInteger mCommandCount;
+
+   /**
+    * @param transport The transport requests are sent with.
+    * @param dispatcher The threads requests are sent on, which may be
+    *                   shared with other sessions.
+    * @param listener Receives the report once the session completes.
+    */
+   public Session(
+       @NonNull Transport transport,
+       @NonNull ExecutorService dispatcher,
+       @NonNull SessionListener listener) {
+      mListener = listener;
+      mRequestManager = new RequestManager(this, transport, dispatcher);
+      mDrones = new HashMap<>();
+      mDroneTasks = new HashMap<>();
+      mAllDroneTasks = new CopyOnWriteArrayList<>();
+      mScheduler = new DroneScheduler();
+      mRoomTable = new RoomTable();
+      mWritings = new SparseArray<>();
+      mDroneIds = Collections.emptyList();
+      mCacheSamples = new HashMap<>();
+      mFrontierType = FrontierStrategy.Type.DEPTH_FIRST;
+      mCommandCount = new AtomicInteger();
+      mDroneRunner = new DroneRunner();
+      setSkipResolved(SKIP_RESOLVED);
+      mWarmStart = WARM_START;
+      mBatchSize = DroneTask.BUFFER_SIZE;
+      mLookahead = DroneTask.BUFFER_SIZE;
+   }
+
+   /**
+    * Checkpoints this session, and resumes it from the checkpoint (if there
+    * is one) when it starts. Must be called before {@link #start()}.
+    * @param checkpoint The checkpoint.
+    */
+   public void setCheckpoint(Checkpoint checkpoint) {
+      mCheckpoint = checkpoint;
+   }
+
+   /**
+    * Preloads rooms from, and saves them back to, the room cache. Must be
+    * called before {@link #start()}.
+    * @param roomCache The room cache.
+    */
+   public void setRoomCache(RoomCache roomCache) {
+      mRoomCache = roomCache;
+   }
+
+   /**
+    * Sets the number of rooms kept in memory before resolved rooms are
+    * compacted and spilled to the given spill file. Must be called before
+    * {@link #start()}.
+    * @param budget The number of rooms, or zero for no limit.
+    * @param spill Where compacted rooms are written.
+    */
+   public void setRoomBudget(int budget, RoomSpill spill) {
+      mRoomBudget = Math.max(budget, 0);
+      mNextCompaction = mRoomBudget;
+      mRoomSpill = spill;
+   }
+
+   /**
+    * Records this session to the given event log, which the session closes
+    * once it completes.
+    * @param eventLog The event log.
+    */
+   public void setEventLog(EventLog eventLog) {
+      mEventLog = eventLog;
+   }
+
+   /**
+    * Runs this session in deterministic mode, so that repeated runs
+    * against the same maze issue the same commands in the same order. Each
+    * drone shuffles rooms with its own generator seeded from the given
+    * seed, and a {@link Sequencer} lets only one drone or request run at a
+    * time. Every drone explores and reads, since reader drones wait for
+    * work outside the sequencer. Must be called before {@link #start()}.
+    * @param seed The seed.
+    */
+   public void setDeterministic(long seed) {
+      mSeed = seed;
+      mSequencer = new Sequencer();
+      mRequestManager.setSequencer(mSequencer);
+   }
+
+   /**
+    * Sets the order in which each drone visits the rooms assigned to it.
+    * Must be called before {@link #start()}.
+    * @param type The frontier strategy.
+    */
+   public void setFrontierType(@NonNull FrontierStrategy.Type type) {
+      mFrontierType = type;
+   }
+
+   /**
+    * Runs the drones on the given executor, which may be shared with
+    * other sessions, rather than on threads created for this session.
+    * Must be called before {@link #start()}.
+    * @param executor The executor.
+    */
+   public void setDroneExecutor(DroneExecutor executor) {
+      mDroneExecutor = executor;
+   }
+
+   /**
+    * Sets whether drones skip over rooms that are already resolved and go
+    * straight to the nearest rooms that still need querying, rather than
+    * walking through every known room to reach them. Must be called before
+    * {@link #start()}.
+    * @param skipResolved Whether to skip resolved rooms.
+    */
+   public void setSkipResolved(boolean skipResolved) {
+      mSkipResolved = skipResolved;
+      mScheduler.setSkipResolved(skipResolved);
+   }
+
+   /**
+    * Sets whether the start phase is sped up. When it is, the first
+    * exploring drone sends a combined "read" and "explore" for the start
+    * room as soon as the "start" response arrives, before any drone thread
+    * starts, and a connection to the server is opened for each drone
+    * while it waits. The start room's connections are spread across the
+    * drones as soon as they arrive either way. Must be called before
+    * {@link #start()}.
+    * @param warmStart Whether to speed up the start phase.
+    */
+   public void setWarmStart(boolean warmStart) {
+      mWarmStart = warmStart;
+   }
+
+   /**
+    * Sets the most commands each drone sends in one request, up to the
+    * {@link DroneTask#BUFFER_SIZE} the server accepts. Must be called before
+    * {@link #start()}.
+    * @param batchSize The batch size.
+    */
+   public void setBatchSize(int batchSize) {
+      mBatchSize = batchSize;
+   }
+
+   /**
+    * Sets the number of frontier rooms each drone batches into one request.
+    * With a lookahead of one, a drone waits for each room's connections
+    * before moving on. Must be called before {@link #start()}.
+    * @param lookahead The lookahead.
+    */
+   public void setLookahead(int lookahead) {
+      mLookahead = lookahead;
+   }
+
+   @NonNull
+   public RequestManager getRequestManager() {
+      return mRequestManager;
+   }
+
+   /**
+    * Returns the number of rooms currently known, including compacted
+    * rooms.
+    * @return The number of rooms.
+    */
+   public int getRoomCount() {
+      return mRoomTable.size();
+   }
+
+   /**
+    * Returns the total number of commands sent so far.
+    * @return The number of commands.
+    */
+   public int getCommandCount() {
+      return mCommandCount.get();
+   }
+
+   /**
+    * Returns a snapshot of what each drone has done so far, in the order
+    * the drones were created. Safe to call from any thread.
+    * @return The stats of every drone.
+    */
+   @NonNull
+   public List<DroneStats> getDroneStats() {
+      List<DroneStats> stats = new ArrayList<>(mAllDroneTasks.size());
+      for (DroneTask task : mAllDroneTasks) {
+         stats.add(task.getStats());
+      }
+      return stats;
+   }
+
+   /**
+    * Returns the number of resolved rooms the drones skipped over.
+    * @return The number of rooms.
+    */
+   public int getSkippedRoomCount() {
+      return mScheduler.getSkippedCount();
+   }
+
+   /**
+    * Returns whether the report for this session has come back.
+    * @return Whether the session is finished.
+    */
+   public boolean isFinished() {
+      return mFinished;
+   }
+
+   /**
+    * Starts exploring, resuming from the checkpoint if there is one.
+    * A session can only be started once.
+    */
+   public void start() {
+      if (mStarted) {
+         return;
+      }
+      mStarted = true;
+      mCacheValid = (mRoomCache != null);
+      if (!resumeFromCheckpoint()) {
+         mRequestManager.add(new StartRequest());
+      }
+   }
+
+   /**
+    * Stops the session: queued requests are dropped, requests being sent
+    * are aborted, waiting drones are woken and cancelled, and the drones'
+    * threads are shut down. A cancelled session can't be started again;
+    * create a new one instead. This is a no-op once the session has
+    * finished, since finishing shuts it down the same way.
+    */
+   public void cancel() {
+      if (mStopNanos != 0) {
+         return;
+      }
+      stop();
+   }
+
+   /**
+    * Shuts down everything the session runs on, either because it was
+    * cancelled or because it has finished.
+    */
+   private void stop() {
+      mStopNanos = System.nanoTime();
+      mRequestManager.shutdown();
+      for (DroneTask task : mDroneTasks.values()) {
+         task.cancel(true);
+         task.wake();
+      }
+      mScheduler.clear();
+      if (mSequencer != null) {
+         mSequencer.shutdown();
+      }
+      if (mOwnsDroneExecutor) {
+         mDroneExecutor.shutdownNow();
+      }
+   }
+
+   /**
+    * Waits until a cancelled or finished session has quiesced, i.e. its
+    * request loop has exited, no requests are being sent and every drone
+    * task has returned its thread.
+    * @param timeout The longest time to wait.
+    * @param unit The unit of the timeout.
+    * @return The time from when the session was cancelled or finished until
+    * it quiesced, in nanoseconds, or -1 if it has been neither or didn't
+    * quiesce in time.
+    * @throws InterruptedException
+    */
+   public long awaitQuiescence(long timeout, @NonNull TimeUnit unit)
+       throws InterruptedException {
+      if (mStopNanos == 0) {
+         return -1;
+      }
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      if (!mRequestManager.awaitQuiescence(timeout, unit)) {
+         return -1;
+      }
+      if (!mDroneRunner.awaitIdle(deadline)) {
+         return -1;
+      }
+      return System.nanoTime() - mStopNanos;
+   }
+
+   /**
+    * Releases the event log and room spill held by this session.
+    */
+   public void close() {
+      if (mEventLog != null) {
+         mEventLog.close();
+         mEventLog = null;
+      }
+      if (mRoomSpill != null) {
+         mRoomSpill.clear();
+      }
+   }
+
+   /**
+    * Handles HTTP request errors.
+    * @param request The request that failed.
+    * @param e The error that was encountered
+    */
+   @Override
+   public void onRequestError(@NonNull HttpRequest request, Exception e) {
+      DebugLog.e(TAG, "onRequestError", e);
+      if (request instanceof CommandsRequest) {
+         handleFailedCommands((CommandsRequest) request);
+      }
+   }
+
+   /**
+    * Handles all successful HTTP request responses.
+    * @param response The {@link HttpResponse}.
+    */
+   @Override
+   public void onRequestResponse(HttpResponse response) {
+      RESPONSE_LOG.d(TAG, "Received %s", response);
+      if (response instanceof StartResponse) {
+         handleStartResponse((StartResponse) response);
+      } else if (response instanceof CommandsResponse) {
+         handleCommandsReponse((CommandsResponse) response);
+      } else if (response instanceof ReportResponse) {
+         handleReportResponse((ReportResponse) response);
+      } else if (response instanceof NotFoundResponse) {
+         handleNotFoundResponse((NotFoundResponse) response);
+      } else if (response instanceof ErrorResponse) {
+         handleErrorResponse((ErrorResponse) response);
+      }
+   }
+
+   /**
+    * Handles when a drone task signifies that a command request should
+    * be sent. This is usually called on the drone's thread, which is held
+    * back while the request queue is full, but the first commands of a
+    * warm start are sent from the main thread.
+    * @param task The drone task that sent this message.
+    * @param commands A {@link List} of commands to send.
+    */
+   @Override
+   public void onSendCommands(
+       @NonNull DroneTask task,
+       @NonNull List<Command> commands) {
+      if (mEventLog != null) {
+         mEventLog.commandsSent(task.getDrone().getId(), commands);
+      }
+      mCommandCount.addAndGet(commands.size());
+
+      // Hold the drone back while the request queue is full, so that when
+      // the network slows down the queue doesn't grow without bound. The
+      // first commands may be sent from the main thread, which must never
+      // be held back.
+      if (Looper.myLooper() != Looper.getMainLooper()
+          && mRequestManager.isSaturated()) {
+         onBlocked(task);
+         mRequestManager.awaitCapacity();
+         onUnblocked(task);
+      }
+      mRequestManager.add(new CommandsRequest(
+          task.getDrone(), commands));
+   }
+
+   /**
+    * Sent by a drone task when it queues the commands that resolve a room.
+    * @param task The drone task that sent this message.
+    * @param room The room that was claimed.
+    */
+   @Override
+   public void onRoomClaimed(@NonNull DroneTask task, @NonNull Room room) {
+      if (mEventLog != null) {
+         mEventLog.roomClaimed(task.getDrone().getId(), room.getId());
+      }
+   }
+
+   /**
+    * Sent by a drone task when it blocks to wait for results.
+    * @param task The drone task that sent this message.
+    */
+   @Override
+   public void onBlocked(@NonNull DroneTask task) {
+      if (mEventLog != null) {
+         mEventLog.droneBlocked(task.getDrone().getId());
+      }
+   }
+
+   /**
+    * Sent by a drone task when it wakes up after waiting for results.
+    * @param task The drone task that sent this message.
+    */
+   @Override
+   public void onUnblocked(@NonNull DroneTask task) {
+      if (mEventLog != null) {
+         mEventLog.droneUnblocked(task.getDrone().getId());
+      }
+   }
+
+   /**
+    * Sent by a drone task when a drone has queried all rooms.
+    * NOTE: "Queried" does not mean that a drone physically visited a room.
+    * In each case we check whether a room needs processing before we would
+    * send a drone to examine it. But even if a room has already been
+    * processed, we "query" that room in the data to be sure.
+    * @param task The drone task that sent this message.
+    */
+   @Override
+   public void onFinished(@NonNull DroneTask task) {
+      Drone drone = task.getDrone();
+      DebugLog.d(TAG, "Finished: %s", drone);
+      mDroneTasks.remove(drone.getId());
+      mScheduler.unregister(task);
+      if (mDroneTasks.size() == 0) {
+         DebugLog.d(TAG, "All drones have finished!!!");
+         if (mOwnsDroneExecutor) {
+            mDroneExecutor.shutdown();
+         }
+         DebugLog.d(TAG, "Request queue: max depth %d, mean wait %d us",
+             mRequestManager.getMaxQueueDepth(),
+             mRequestManager.getMeanQueueWaitNanos() / 1000);
+         saveRoomCache();
+         mRequestManager.add(
+             new ReportRequest(mWritings));
+      }
+   }
+
+   /**
+    * Returns the {@link Drone} that corresponds to the given id,
+    * creating one if necessary.
+    * @param droneId The drone id.
+    * @return The drone with the given id.
+    */
+   private Drone resolveDrone(@NonNull String droneId) {
+      Drone drone = mDrones.get(droneId);
+      if (drone == null) {
+         drone = new Drone(droneId);
+
+         DebugLog.d(TAG, "Created %s", drone);
+
+         mDrones.put(droneId, drone);
+      }
+      return drone;
+   }
+
+   /**
+    * Returns the {@link DroneTask} that corresponds to the given drone id,
+    * creating one if necessary.
+    * @param droneId The drone id.
+    * @return The drone task associated with the given id.
+    */
+   private DroneTask resolveDroneTask(@NonNull String droneId) {
+      DroneTask task = mDroneTasks.get(droneId);
+      if (task == null) {
+         Drone drone = resolveDrone(droneId);
+         task = new DroneTask(drone, this, mScheduler);
+
+         DebugLog.d(TAG, "Created %s", task);
+
+         mDroneTasks.put(droneId, task);
+         mAllDroneTasks.add(task);
+      }
+      return task;
+   }
+
+   /**
+    * Returns the {@link Room} that corresponds to the given id,
+    * creating one if necessary.
+    * @param roomId The room id.
+    * @return The room with the given id, or null if it has been compacted.
+    */
+   private Room resolveRoom(@NonNull String roomId) {
+      int count = mRoomTable.size();
+      Room room = mRoomTable.resolve(roomId);
+      if (mRoomTable.size() > count) {
+         ROOM_LOG.d(TAG, "Created %s", room);
+      }
+      return room;
+   }
+
+   /**
+    * Returns the numbers of the {@link Room}s that correspond to the given
+    * ids, creating the rooms if necessary.
+    * @param roomIds The room ids.
+    * @return The room numbers, for {@link Room#setConnections}.
+    */
+   private int[] resolveRooms(@NonNull List<String> roomIds) {
+      int count = mRoomTable.size();
+      int[] rooms = mRoomTable.resolveAll(roomIds);
+      int created = mRoomTable.size() - count;
+      if (created > 0) {
+         ROOM_LOG.d(TAG, "Created %d rooms", created);
+      }
+      return rooms;
+   }
+
+   /**
+    * If the rooms in memory have outgrown the room budget, compacts every
+    * room that is resolved and whose connections have all been assigned to
+    * a drone. The rooms are spilled to disk together, then dropped from
+    * memory except for their ids; if the spill fails, none of them are
+    * dropped. If that doesn't bring the rooms back under budget, the next
+    * sweep is put off until they have grown a good deal more, so that
+    * sweeping doesn't happen on every response.
+    */
+   private void compactRooms() {
+      if (mRoomBudget <= 0
+          || mRoomSpill == null
+          || mRoomTable.getLiveCount() <= mNextCompaction) {
+         return;
+      }
+
+      List<Room> cold = new ArrayList<>();
+      for (Room room : mRoomTable.getLiveRooms()) {
+         if (room.isCompactable()) {
+            cold.add(room);
+         }
+      }
+      int compacted = 0;
+      try {
+         mRoomSpill.appendAll(cold);
+         for (Room room : cold) {
+            mRoomTable.compact(room);
+         }
+         compacted = cold.size();
+      } catch (IOException e) {
+         DebugLog.e(TAG, "Unable to spill rooms", e);
+      }
+
+      int live = mRoomTable.getLiveCount();
+      mNextCompaction = Math.max(mRoomBudget, live + mRoomBudget / 4);
+      DebugLog.d(TAG, "Compacted %d rooms, %d left in memory",
+          compacted, live);
+   }
+
+   /**
+    * Returns a {@link Writing} with the given parameters, saving the
+    * writing if it is valid, that is, has an order != -1. If we were to
+    * get another writing with the same order, the old one will be overritten.
+    * @param text The writing text.
+    * @param order The writing order.
+    * @return A writing instance.
+    */
+   private Writing resolveWriting(@NonNull String text, int order) {
+      Writing writing = new Writing(text, order);
+      if (order != INVALID_WRITING) {
+         mWritings.put(order, writing);
+
+         DebugLog.d(TAG, "Found valid writing! %s", writing);
+      }
+      return writing;
+   }
+
+   /**
+    * Handles the response from a "start" HTTP request.
+    * @param response The HTTP response.
+    */
+   private void handleStartResponse(StartResponse response) {
+      mStartRoomId = response.getRoomId();
+      mDroneIds = response.getDroneIds();
+      Room room = resolveRoom(mStartRoomId);
+
+      if (mRoomCache != null) {
+         preloadRoomCache();
+      }
+      if (mCheckpoint != null) {
+         try {
+            mCheckpoint.begin(mStartRoomId, mDroneIds);
+         } catch (IOException e) {
+            DebugLog.e(TAG, "Unable to begin checkpoint", e);
+         }
+      }
+
+      // Resolve all drones first. Only one drone starts with the start
+      // room; the rest get their rooms from the scheduler as the start
+      // room's connections come in. If the start room still needs
+      // querying, it is sent for straight away.
+      boolean sendFirst = mWarmStart
+          && (!room.hasConnections() || !room.hasWriting());
+      if (mWarmStart) {
+         mRequestManager.warmUp(mDroneIds.size());
+      }
+      Map<Drone, List<Room>> frontiers = new LinkedHashMap<>();
+      for (String droneId : mDroneIds) {
+         frontiers.put(
+             resolveDrone(droneId),
+             frontiers.isEmpty() && !sendFirst
+                 ? Collections.singletonList(room)
+                 : Collections.<Room>emptyList());
+      }
+
+      startDroneTasks(
+          frontiers,
+          Collections.<Room>emptyList(),
+          sendFirst ? room : null);
+   }
+
+   /**
+    * Pre-populates the rooms of a maze we've explored before from the room
+    * cache, so that drones won't issue commands for them. If validation is
+    * on, a random sample of cached rooms is left for the drones to query
+    * and their results are compared against the cache as they arrive.
+    */
+   private void preloadRoomCache() {
+      mCacheSamples.clear();
+      mCacheValid = true;
+
+      Map<String, RoomCache.Entry> entries;
+      try {
+         entries = mRoomCache.load(mStartRoomId);
+      } catch (IOException e) {
+         DebugLog.e(TAG, "Unable to load room cache", e);
+         return;
+      }
+
+      Random random = (mSequencer != null ? new Random(mSeed) : new Random());
+      for (Map.Entry<String, RoomCache.Entry> mapEntry : entries.entrySet()) {
+         String roomId = mapEntry.getKey();
+         RoomCache.Entry entry = mapEntry.getValue();
+         if (VALIDATE_CACHE && random.nextDouble() < CACHE_SAMPLE_RATE) {
+            mCacheSamples.put(roomId, entry);
+            continue;
+         }
+
+         Room room = resolveRoom(roomId);
+         if (entry.getConnections() != null) {
+            room.setConnections(resolveRooms(entry.getConnections()));
+         }
+         Writing writing = entry.getWriting();
+         if (writing != null) {
+            room.setWriting(
+                resolveWriting(writing.getText(), writing.getOrder()));
+         }
+      }
+
+      DebugLog.d(TAG, "Preloaded %d rooms from cache, validating %d",
+          entries.size() - mCacheSamples.size(), mCacheSamples.size());
+   }
+
+   /**
+    * Compares a room just resolved by the server against the room cache,
+    * if the room was sampled for validation. On a mismatch the cached maze
+    * is thrown away.
+    * @param room The resolved room.
+    */
+   private void validateRoomCache(@NonNull Room room) {
+      RoomCache.Entry entry = mCacheSamples.get(room.getId());
+      if (entry == null) {
+         return;
+      }
+
+      boolean valid = true;
+      List<String> roomIds = room.getConnectionIds();
+      if (roomIds != null && entry.getConnections() != null) {
+         valid = new HashSet<>(roomIds).equals(
+             new HashSet<>(entry.getConnections()));
+      }
+      Writing actual = room.getWriting();
+      if (valid && actual != null && entry.getWriting() != null) {
+         Writing cached = entry.getWriting();
+         valid = cached.getOrder() == actual.getOrder()
+             && cached.getText().equals(actual.getText());
+      }
+
+      if (!valid) {
+         DebugLog.w(TAG, "Room cache mismatch for %s; invalidating", room);
+         mRoomCache.invalidate(mStartRoomId);
+         mCacheSamples.clear();
+         mCacheValid = false;
+      }
+   }
+
+   /**
+    * Saves the rooms of this session to the room cache.
+    */
+   private void saveRoomCache() {
+      if (!mCacheValid || mStartRoomId == null) {
+         return;
+      }
+      try {
+         mRoomCache.save(
+             mStartRoomId, mRoomTable.getLiveRooms(), mRoomSpill);
+      } catch (IOException e) {
+         DebugLog.e(TAG, "Unable to save room cache", e);
+      }
+   }
+
+   /**
+    * Resolves and executes a task for each of the given drones, dedicating
+    * {@link #READER_FRACTION} of them to reading.
+    * @param frontiers The rooms each drone should start with.
+    * @param unread Explored rooms that still need to be read.
+    * @param first A room whose commands the first exploring drone sends
+    *              before any drone starts, or null.
+    */
+   private void startDroneTasks(
+       @NonNull Map<Drone, List<Room>> frontiers,
+       @NonNull List<Room> unread,
+       Room first) {
+      // Without a shared executor, the drones get threads of their own
+      if (mDroneExecutor == null) {
+         mDroneExecutor = new DroneExecutor(0);
+         mOwnsDroneExecutor = true;
+      }
+      mDroneExecutor.reserve(frontiers.size());
+
+      // Register every task with the scheduler before any of them run, so
+      // that a drone with no rooms doesn't conclude exploration is over.
+      int readers = (mSequencer != null ? 0 : Math.min(
+          (int) (frontiers.size() * READER_FRACTION),
+          frontiers.size() - 1));
+      Random seeds = new Random(mSeed);
+      int explorers = frontiers.size() - readers;
+      List<DroneTask> tasks = new ArrayList<>(frontiers.size());
+      List<Room> reassigned = new ArrayList<>();
+      List<Room> starting = new ArrayList<>();
+      for (Map.Entry<Drone, List<Room>> entry : frontiers.entrySet()) {
+         DroneTask task = resolveDroneTask(entry.getKey().getId());
+         if (mSequencer != null) {
+            task.setSeed(seeds.nextLong());
+            task.setSequencer(mSequencer);
+         }
+         task.setFrontierType(mFrontierType);
+         task.setBatchSize(mBatchSize);
+         task.setLookahead(mLookahead);
+         if (tasks.size() >= explorers) {
+            // Readers don't explore, so their rooms go to the explorers
+            task.setRole(DroneTask.Role.READER);
+            reassigned.addAll(entry.getValue());
+         } else {
+            task.setRole(readers > 0
+                ? DroneTask.Role.EXPLORER
+                : DroneTask.Role.HYBRID);
+            mScheduler.register(task);
+            if (mSkipResolved) {
+               // The starting rooms may lead through resolved rooms to
+               // many unresolved ones, so hand them all out together
+               // once every drone is registered.
+               starting.addAll(entry.getValue());
+            } else {
+               for (Room room : entry.getValue()) {
+                  room.markScheduled();
+               }
+               task.addAll(entry.getValue());
+            }
+         }
+         tasks.add(task);
+      }
+      mScheduler.distribute(starting);
+      mScheduler.distribute(reassigned);
+
+      if (readers > 0) {
+         for (Room room : unread) {
+            room.setAwaitingWriting(true);
+            mScheduler.addUnread(room);
+         }
+      } else {
+         // Drones that read will read these rooms when they visit them
+         mScheduler.distribute(unread);
+      }
+
+      if (first != null && explorers > 0) {
+         // The first task is busy with this room until its results come
+         // back, so the drones can't all go idle in the meantime.
+         first.markScheduled();
+         tasks.get(0).sendFirst(first);
+      }
+
+      if (mSequencer != null) {
+         // Tasks take their first turns in drone order
+         for (DroneTask task : tasks) {
+            mSequencer.ready(task);
+         }
+      }
+      for (DroneTask task : tasks) {
+         task.executeOnExecutor(mDroneRunner);
+      }
+
+      if (mDroneTasks.isEmpty()) {
+         // Nothing left to explore
+         mRequestManager.add(new ReportRequest(mWritings));
+      }
+   }
+
+   /**
+    * Rebuilds the session from the last checkpoint, if there is one, and
+    * restarts the drones. What is left to do is worked out from the rooms
+    * themselves: every known room without connections still needs
+    * exploring, and every explored room without writing still needs
+    * reading. Frontiers are only checkpointed every
+    * {@link #CHECKPOINT_INTERVAL} responses and leave out rooms whose
+    * commands were in flight, so they are just a hint as to which drone
+    * takes which room first.
+    * @return Whether the session was resumed.
+    */
+   private boolean resumeFromCheckpoint() {
+      if (mCheckpoint == null) {
+         return false;
+      }
+
+      Checkpoint.State state;
+      try {
+         state = mCheckpoint.load();
+      } catch (IOException e) {
+         DebugLog.e(TAG, "Unable to load checkpoint", e);
+         state = null;
+      }
+      if (state == null) {
+         return false;
+      }
+
+      mStartRoomId = state.getRoomId();
+      mDroneIds = state.getDroneIds();
+      Room start = resolveRoom(mStartRoomId);
+      for (Map.Entry<String, List<String>> entry
+          : state.getConnections().entrySet()) {
+         resolveRoom(entry.getKey()).setConnections(
+             resolveRooms(entry.getValue()));
+      }
+      for (Map.Entry<String, Writing> entry
+          : state.getWritings().entrySet()) {
+         Writing writing = entry.getValue();
+         resolveRoom(entry.getKey()).setWriting(
+             resolveWriting(writing.getText(), writing.getOrder()));
+      }
+
+      // Gather the rooms left to explore, starting from the start room and
+      // following connections in the order they were discovered (which
+      // the checkpoint keeps), and the rooms that were explored but not
+      // read.
+      Set<Room> unexplored = new LinkedHashSet<>();
+      List<Room> unread = new ArrayList<>();
+      if (!start.hasConnections()) {
+         unexplored.add(start);
+      }
+      for (String roomId : state.getConnections().keySet()) {
+         Room room = resolveRoom(roomId);
+         if (!room.hasWriting()) {
+            unread.add(room);
+         }
+         for (Room connection : room.getConnections()) {
+            if (!connection.hasConnections()) {
+               unexplored.add(connection);
+            }
+         }
+      }
+
+      // Each drone starts with the rooms still left in its checkpointed
+      // frontier; the rest are dealt out among the drones in turn.
+      Map<Drone, List<Room>> frontiers = new LinkedHashMap<>();
+      for (String droneId : mDroneIds) {
+         List<Room> frontier = new ArrayList<>();
+         List<String> roomIds = state.getFrontiers().get(droneId);
+         if (roomIds != null) {
+            for (String roomId : roomIds) {
+               Room room = resolveRoom(roomId);
+               if (unexplored.remove(room)) {
+                  frontier.add(room);
+               }
+            }
+         }
+         frontiers.put(resolveDrone(droneId), frontier);
+      }
+      if (!frontiers.isEmpty()) {
+         List<List<Room>> lists = new ArrayList<>(frontiers.values());
+         int next = 0;
+         for (Room room : unexplored) {
+            lists.get(next).add(room);
+            next = (next + 1) % lists.size();
+         }
+      }
+
+      DebugLog.d(TAG, "Resuming from checkpoint with %d rooms",
+          mRoomTable.size());
+
+      try {
+         mCheckpoint.reopen();
+      } catch (IOException e) {
+         DebugLog.e(TAG, "Unable to reopen checkpoint", e);
+      }
+
+      startDroneTasks(frontiers, unread, null);
+      return true;
+   }
+
+   /**
+    * Appends the drone frontiers to the checkpoint every
+    * {@link #CHECKPOINT_INTERVAL} responses, compacting it when it has
+    * grown large. Once rooms have been compacted out of memory the log is
+    * no longer compacted, since it is the only full record of those rooms.
+    */
+   private void checkpoint() {
+      if (mCheckpoint == null
+          || ++mResponsesSinceCheckpoint < CHECKPOINT_INTERVAL) {
+         return;
+      }
+      mResponsesSinceCheckpoint = 0;
+
+      Map<String, List<Room>> frontiers = new HashMap<>();
+      for (DroneTask task : mDroneTasks.values()) {
+         frontiers.put(task.getDrone().getId(), task.getFrontier());
+      }
+
+      try {
+         if (mCheckpoint.getRecordCount() >= COMPACT_THRESHOLD
+             && mRoomTable.getCompactedCount() == 0) {
+            mCheckpoint.compact(mStartRoomId, mDroneIds,
+                mRoomTable.getLiveRooms(), frontiers);
+         } else {
+            for (Map.Entry<String, List<Room>> entry : frontiers.entrySet()) {
+               mCheckpoint.appendFrontier(entry.getKey(), entry.getValue());
+            }
+            mCheckpoint.flush();
+         }
+      } catch (IOException e) {
+         DebugLog.e(TAG, "Unable to write checkpoint", e);
+      }
+   }
+
+   /**
+    * Raises the priority of the rooms connected to the given room, for
+    * drones with a {@link FrontierStrategy.Type#BEST_FIRST} frontier. When
+    * the room is explored, each connection gains the number of the room's
+    * connections that haven't been scheduled yet, so branchy parts of the
+    * maze are opened up first. Each connection also gains
+    * {@link #WRITING_PRIORITY} once both the connections and valid writing
+    * of the room are known. Since a frontier reads a room's priority when
+    * the room is added, this only affects rooms that haven't been
+    * distributed yet.
+    * @param room The room whose connections or writing just came back.
+    * @param explored Whether it was the room's connections that came back.
+    */
+   private void prioritizeConnections(@NonNull Room room, boolean explored) {
+      if (mFrontierType != FrontierStrategy.Type.BEST_FIRST) {
+         return;
+      }
+      List<Room> connections = room.getConnections();
+      if (connections == null) {
+         return;
+      }
+      int priority = 0;
+      if (explored) {
+         for (Room connection : connections) {
+            if (!connection.isScheduled()) {
+               priority++;
+            }
+         }
+      }
+      Writing writing = room.getWriting();
+      if (writing != null && writing.getOrder() != INVALID_WRITING) {
+         priority += WRITING_PRIORITY;
+      }
+      if (priority == 0) {
+         return;
+      }
+      for (Room connection : connections) {
+         connection.raisePriority(priority);
+      }
+   }
+
+   /**
+    * Handles the response from a "command" HTTP request.
+    * @param response The HTTP response.
+    */
+   private void handleCommandsReponse(CommandsResponse response) {
+      int resultCount = response.getResultCount();
+
+      // With lookahead a single response can explore several rooms; their
+      // connections are gathered up and distributed together.
+      List<Room> explored = new ArrayList<>(resultCount);
+      int discoveredCount = 0;
+      for (int i = 0; i < resultCount; i++) {
+         Result result = response.resultAt(i);
+         if (result instanceof ConnectionsResult) {
+            discoveredCount +=
+                ((ConnectionsResult) result).getConnections().size();
+         }
+      }
+      List<Room> discovered = new ArrayList<>(discoveredCount);
+      List<Command> failed = null;
+      for (int i = 0; i < resultCount; i++) {
+         Result result = response.resultAt(i);
+         Command command = result.getCommand();
+         Room room = resolveRoom(command.getRoomId());
+         if (room == null) {
+            // Compacted while this command was in flight; it was already
+            // resolved, so there's nothing new to learn
+            continue;
+         }
+
+         if (result instanceof WritingResult) {
+            // We've encoutered a writing result
+            WritingResult writingResult = (WritingResult) result;
+            Writing writing = resolveWriting(
+                writingResult.getText(),
+                writingResult.getOrder());
+            room.setWriting(writing);
+            appendCheckpoint(room, false);
+            validateRoomCache(room);
+            prioritizeConnections(room, false);
+
+         } else if (result instanceof ConnectionsResult) {
+            // We've encountered a connections result
+            ConnectionsResult connectionsResult =
+                (ConnectionsResult) result;
+            List<String> roomIds =
+                connectionsResult.getConnections();
+            room.setConnections(resolveRooms(roomIds));
+            appendCheckpoint(room, true);
+            validateRoomCache(room);
+            prioritizeConnections(room, true);
+            explored.add(room);
+            discovered.addAll(room.getConnections());
+         } else if (result instanceof ErrorResult) {
+            ErrorResult errorResult = (ErrorResult) result;
+            DebugLog.e(TAG, "Error: %s", errorResult.getError());
+            if (failed == null) {
+               failed = new ArrayList<>();
+            }
+            failed.add(command);
+         }
+      }
+
+      // Assign the newly-discovered rooms among the drones, and wake any
+      // drones that are waiting on the explored rooms.
+      if (!explored.isEmpty()) {
+         mScheduler.distribute(discovered);
+         for (DroneTask task : mDroneTasks.values()) {
+            for (Room room : explored) {
+               if (task.isRoomCurrent(room)) {
+                  task.wake();
+                  break;
+               }
+            }
+         }
+      }
+
+      // Commands the server couldn't carry out are given back
+      Drone drone = response.getDrone();
+      if (failed != null) {
+         requeueCommands(drone, failed);
+      }
+
+      // Tell the task that spawned this request that we are no longer
+      // awaiting commands.
+      releaseDrone(drone);
+
+      checkpoint();
+      compactRooms();
+   }
+
+   /**
+    * Appends a newly-resolved room to the checkpoint.
+    * @param room The room.
+    * @param connections Whether to append the room's connections (true) or
+    *                    its writing (false).
+    */
+   private void appendCheckpoint(@NonNull Room room, boolean connections) {
+      if (mCheckpoint == null) {
+         return;
+      }
+      try {
+         if (connections) {
+            mCheckpoint.appendConnections(room);
+         } else {
+            mCheckpoint.appendWriting(room);
+         }
+      } catch (IOException e) {
+         DebugLog.e(TAG, "Unable to append to checkpoint", e);
+      }
+   }
+
+   /**
+    * Handles the response from a "report" HTTP request.
+    * @param response The HTTP response.
+    */
+   private void handleReportResponse(ReportResponse response) {
+      DebugLog.d(TAG, "**************************************************");
+      DebugLog.d(TAG, response.getResponse());
+      DebugLog.d(TAG, "**************************************************");
+
+      // Nothing more will be sent, so give back every thread the session
+      // was running on
+      stop();
+
+      // The session is complete, so there is nothing left to resume
+      if (mCheckpoint != null) {
+         mCheckpoint.clear();
+      }
+      if (mEventLog != null) {
+         mEventLog.close();
+         mEventLog = null;
+      }
+
+      mFinished = true;
+      mListener.onSessionFinished(this, response);
+   }
+
+   private void handleNotFoundResponse(NotFoundResponse response) {
+      DebugLog.w(TAG, "404 Not Found encountered");
+   }
+
+   private void handleErrorResponse(ErrorResponse response) {
+      DebugLog.e(TAG, "400 or other error encountered: %s",
+          response.getError());
+      if (response.getRequest() instanceof CommandsRequest) {
+         handleFailedCommands((CommandsRequest) response.getRequest());
+      }
+   }
+
+   /**
+    * Recovers from a "commands" request that failed, or that the server
+    * kept rejecting: its rooms are given back to be queried again, and the
+    * drone that sent it stops waiting for the results.
+    * @param request The failed request.
+    */
+   private void handleFailedCommands(@NonNull CommandsRequest request) {
+      DebugLog.w(TAG, "Requeueing the commands of %s", request.getDrone());
+      requeueCommands(request.getDrone(), request.getCommands());
+      releaseDrone(request.getDrone());
+   }
+
+   /**
+    * Gives back the rooms of commands that didn't get results. The rooms
+    * stop awaiting those results and are assigned to the drones again,
+    * except that rooms a reader drone failed to read go back on the unread
+    * queue. The rooms stay scheduled, so they aren't handed out twice.
+    * @param drone The drone that sent the commands.
+    * @param commands The commands.
+    */
+   private void requeueCommands(
+       @NonNull Drone drone,
+       @NonNull List<Command> commands) {
+      DroneTask task = mDroneTasks.get(drone.getId());
+      boolean reader = (task != null && task.getRole() == DroneTask.Role.READER);
+      List<Room> rooms = new ArrayList<>(commands.size());
+      for (Command command : commands) {
+         Room room = resolveRoom(command.getRoomId());
+         if (room == null) {
+            // Compacted, so already resolved
+            continue;
+         }
+         if (Command.EXPLORE.equals(command.getName())) {
+            if (room.hasConnections()) {
+               continue;
+            }
+            room.setAwaitingConnections(false);
+         } else if (Command.READ.equals(command.getName())) {
+            if (room.hasWriting()) {
+               continue;
+            }
+            if (reader) {
+               mScheduler.addUnread(room);
+               continue;
+            }
+            room.setAwaitingWriting(false);
+         }
+         if (!rooms.contains(room)) {
+            rooms.add(room);
+         }
+      }
+      mScheduler.assign(rooms);
+   }
+
+   /**
+    * Tells the task of the given drone that it is no longer awaiting the
+    * results of its commands.
+    * @param drone The drone.
+    */
+   private void releaseDrone(@NonNull Drone drone) {
+      DroneTask task = mDroneTasks.get(drone.getId());
+      if (task != null) {
+         task.setBusy(false);
+      }
+   }
+
+   /**
+    * Runs drone tasks on the session's {@link DroneExecutor}, counting
+    * the tasks that haven't returned their threads yet.
+    */
+   private class DroneRunner implements Executor {
+
+      private int mRunning;
+
+      @Override
+      public void execute(@NonNull final Runnable runnable) {
+         synchronized (this) {
+            mRunning++;
+         }
+         try {
+            mDroneExecutor.execute(new Runnable() {
+               @Override
+               public void run() {
+                  try {
+                     runnable.run();
+                  } finally {
+                     finished();
+                  }
+               }
+            });
+         } catch (RejectedExecutionException e) {
+            finished();
+            throw e;
+         }
+      }
+
+      private synchronized void finished() {
+         mRunning--;
+         notifyAll();
+      }
+
+      /**
+       * Waits until every drone task has returned its thread.
+       * @param deadline When to give up, from {@link System#nanoTime()}.
+       * @return Whether every task returned its thread in time.
+       * @throws InterruptedException
+       */
+      synchronized boolean awaitIdle(long deadline)
+          throws InterruptedException {
+         while (mRunning > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+               return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+         }
+         return true;
+      }
+   }
+
+   /**
+    * An interface that receives the outcome of a session.
+    */
+   public interface SessionListener {
+      void onSessionFinished(
+          @NonNull Session session,
+          @NonNull ReportResponse response);
+   }
+}
@@ -0,0 +1,116 @@
+package com.slaterama.airtime.frontier;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.model.Room;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A {@link FrontierStrategy} that visits the room with the highest
+ * {@link Room#getPriority()} first. Rooms with the same priority are
+ * visited most recently added first, so with no priorities at all this
+ * behaves like {@link DepthFirstFrontier}.
+ * <p>
+ * A room's priority is read once, when it is added; raising it afterwards
+ * doesn't move it within the frontier.
+ */
+public class BestFirstFrontier implements FrontierStrategy {
+
+   /**
+    * Orders entries highest priority first, then most recent first.
+    */
+   private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+      @Override
+      public int compare(Entry lhs, Entry rhs) {
+         if (lhs.priority != rhs.priority) {
+            return lhs.priority > rhs.priority ? -1 : 1;
+         }
+         return lhs.sequence > rhs.sequence
+             ? -1
+             : (lhs.sequence == rhs.sequence ? 0 : 1);
+      }
+   };
+
+   private static final int INITIAL_CAPACITY = 16;
+
+   @NonNull
+   private final PriorityQueue<Entry> mQueue;
+
+   /**
+    * The sequence number given to the next room added.
+    */
+   private long mSequence;
+
+   public BestFirstFrontier() {
+      mQueue = new PriorityQueue<>(INITIAL_CAPACITY, ORDER);
+   }
+
+   @Override
+   public void add(@NonNull Room room) {
+      mQueue.offer(new Entry(room, room.getPriority(), mSequence++));
+   }
+
+   @Override
+   public Room poll() {
+      Entry entry = mQueue.poll();
+      return entry == null ? null : entry.room;
+   }
+
+   /**
+    * Removes the lowest priority rooms. This sorts the whole frontier, but
+    * it is only called when another drone runs out of rooms.
+    */
+   @NonNull
+   @Override
+   public List<Room> removeLast(int count) {
+      List<Entry> entries = new ArrayList<>(mQueue);
+      Collections.sort(entries, ORDER);
+      count = Math.min(count, entries.size());
+      List<Room> removed = new ArrayList<>(count);
+      for (int i = entries.size() - 1; removed.size() < count; i--) {
+         removed.add(entries.get(i).room);
+      }
+      mQueue.clear();
+      mQueue.addAll(entries.subList(0, entries.size() - count));
+      return removed;
+   }
+
+   @Override
+   public int size() {
+      return mQueue.size();
+   }
+
+   @Override
+   public boolean isEmpty() {
+      return mQueue.isEmpty();
+   }
+
+   @NonNull
+   @Override
+   public List<Room> toList() {
+      List<Entry> entries = new ArrayList<>(mQueue);
+      Collections.sort(entries, ORDER);
+      List<Room> rooms = new ArrayList<>(entries.size());
+      for (Entry entry : entries) {
+         rooms.add(entry.room);
+      }
+      return rooms;
+   }
+
+   private static class Entry {
+      final Room room;
+      final int priority;
+      final long sequence;
+
+      Entry(Room room, int priority, long sequence) {
+         this.room = room;
+         this.priority = priority;
+         this.sequence = sequence;
+      }
+   }
+}
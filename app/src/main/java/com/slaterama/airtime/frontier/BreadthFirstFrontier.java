@@ -0,0 +1,60 @@
+package com.slaterama.airtime.frontier;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.model.Room;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A {@link FrontierStrategy} that visits the least recently added room
+ * first, so that a drone sweeps outwards from where it started.
+ */
+public class BreadthFirstFrontier implements FrontierStrategy {
+
+   @NonNull
+   private final Deque<Room> mRooms;
+
+   public BreadthFirstFrontier() {
+      mRooms = new LinkedList<>();
+   }
+
+   @Override
+   public void add(@NonNull Room room) {
+      mRooms.offerLast(room);
+   }
+
+   @Override
+   public Room poll() {
+      return mRooms.pollFirst();
+   }
+
+   @NonNull
+   @Override
+   public List<Room> removeLast(int count) {
+      List<Room> removed = new ArrayList<>(count);
+      while (removed.size() < count && !mRooms.isEmpty()) {
+         removed.add(mRooms.pollLast());
+      }
+      return removed;
+   }
+
+   @Override
+   public int size() {
+      return mRooms.size();
+   }
+
+   @Override
+   public boolean isEmpty() {
+      return mRooms.isEmpty();
+   }
+
+   @NonNull
+   @Override
+   public List<Room> toList() {
+      return new ArrayList<>(mRooms);
+   }
+}
@@ -0,0 +1,107 @@
+package com.slaterama.airtime.frontier;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.model.Room;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The order in which a drone visits the rooms assigned to it. A strategy
+ * is only ever used by one drone, which guards it with its own lock, so
+ * implementations need not be thread-safe.
+ */
+public interface FrontierStrategy {
+
+   /**
+    * Adds a room to the frontier.
+    * @param room The room.
+    */
+   void add(@NonNull Room room);
+
+   /**
+    * Removes and returns the room to visit next.
+    * @return The next room, or null if the frontier is empty.
+    */
+   Room poll();
+
+   /**
+    * Removes and returns rooms that would otherwise be visited last (i.e.
+    * so another drone can take them).
+    * @param count The number of rooms to remove.
+    * @return The removed rooms.
+    */
+   @NonNull
+   List<Room> removeLast(int count);
+
+   int size();
+
+   boolean isEmpty();
+
+   /**
+    * Returns a snapshot of the frontier, in the order the rooms would be
+    * visited where the strategy has one.
+    * @return The rooms in the frontier.
+    */
+   @NonNull
+   List<Room> toList();
+
+   /**
+    * The built-in strategies.
+    */
+   enum Type {
+
+      /**
+       * Visits the most recently added room first.
+       */
+      DEPTH_FIRST {
+         @NonNull
+         @Override
+         public FrontierStrategy create(@NonNull Random random) {
+            return new DepthFirstFrontier();
+         }
+      },
+
+      /**
+       * Visits the least recently added room first.
+       */
+      BREADTH_FIRST {
+         @NonNull
+         @Override
+         public FrontierStrategy create(@NonNull Random random) {
+            return new BreadthFirstFrontier();
+         }
+      },
+
+      /**
+       * Visits a random room next.
+       */
+      RANDOM {
+         @NonNull
+         @Override
+         public FrontierStrategy create(@NonNull Random random) {
+            return new RandomFrontier(random);
+         }
+      },
+
+      /**
+       * Visits the room with the highest {@link Room#getPriority()} first.
+       */
+      BEST_FIRST {
+         @NonNull
+         @Override
+         public FrontierStrategy create(@NonNull Random random) {
+            return new BestFirstFrontier();
+         }
+      };
+
+      /**
+       * Creates a new, empty frontier of this type.
+       * @param random The drone's random number generator.
+       * @return The frontier.
+       */
+      @NonNull
+      public abstract FrontierStrategy create(@NonNull Random random);
+   }
+}
@@ -0,0 +1,80 @@
+package com.slaterama.airtime.frontier;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.model.Room;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A {@link FrontierStrategy} that visits a random room next. Rooms are
+ * removed by swapping them with the last room, so every operation is
+ * constant time.
+ */
+public class RandomFrontier implements FrontierStrategy {
+
+   @NonNull
+   private final List<Room> mRooms;
+
+   @NonNull
+   private final Random mRandom;
+
+   /**
+    * @param random Picks the next room. Seed it to make the order
+    *               reproducible.
+    */
+   public RandomFrontier(@NonNull Random random) {
+      mRooms = new ArrayList<>();
+      mRandom = random;
+   }
+
+   @Override
+   public void add(@NonNull Room room) {
+      mRooms.add(room);
+   }
+
+   @Override
+   public Room poll() {
+      int size = mRooms.size();
+      if (size == 0) {
+         return null;
+      }
+      int index = mRandom.nextInt(size);
+      Room room = mRooms.get(index);
+      mRooms.set(index, mRooms.get(size - 1));
+      mRooms.remove(size - 1);
+      return room;
+   }
+
+   /**
+    * Removes rooms from the end of the list. Since the next room is picked
+    * at random, these are as good as any.
+    */
+   @NonNull
+   @Override
+   public List<Room> removeLast(int count) {
+      List<Room> removed = new ArrayList<>(count);
+      while (removed.size() < count && !mRooms.isEmpty()) {
+         removed.add(mRooms.remove(mRooms.size() - 1));
+      }
+      return removed;
+   }
+
+   @Override
+   public int size() {
+      return mRooms.size();
+   }
+
+   @Override
+   public boolean isEmpty() {
+      return mRooms.isEmpty();
+   }
+
+   @NonNull
+   @Override
+   public List<Room> toList() {
+      return new ArrayList<>(mRooms);
+   }
+}
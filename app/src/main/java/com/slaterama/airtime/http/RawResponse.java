@@ -0,0 +1,70 @@
+package com.slaterama.airtime.http;
+
+/**
+ * The raw result of sending an HTTP request: a response code and the
+ * (unparsed) response body.
+ */
+public class RawResponse {
+
+   /**
+    * The HTTP response code.
+    */
+   private final int mResponseCode;
+
+   /**
+    * The response body, or null if the response had none worth reading
+    * (i.e. a 404).
+    */
+   private final String mBody;
+
+   /**
+    * The number of body bytes read off the wire.
+    */
+   private final int mBodyBytes;
+
+   /**
+    * The number of read buffers allocated to receive the body.
+    */
+   private final int mBufferAllocations;
+
+   public RawResponse(int responseCode, String body) {
+      this(responseCode, body, 0, 0);
+   }
+
+   public RawResponse(
+       int responseCode,
+       String body,
+       int bodyBytes,
+       int bufferAllocations) {
+      mResponseCode = responseCode;
+      mBody = body;
+      mBodyBytes = bodyBytes;
+      mBufferAllocations = bufferAllocations;
+   }
+
+   public int getResponseCode() {
+      return mResponseCode;
+   }
+
+   public String getBody() {
+      return mBody;
+   }
+
+   /**
+    * Returns the number of body bytes read off the wire, or zero if the
+    * response didn't come off the wire (i.e. it was replayed).
+    * @return The number of bytes.
+    */
+   public int getBodyBytes() {
+      return mBodyBytes;
+   }
+
+   /**
+    * Returns the number of read buffers that had to be allocated (or grown)
+    * to receive the body. This is zero when a pooled buffer was big enough.
+    * @return The number of buffer allocations.
+    */
+   public int getBufferAllocations() {
+      return mBufferAllocations;
+   }
+}
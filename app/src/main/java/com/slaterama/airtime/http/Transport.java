@@ -0,0 +1,20 @@
+package com.slaterama.airtime.http;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.http.request.HttpRequest;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * Sends {@link HttpRequest}s somewhere and returns the raw response. The
+ * default implementation talks to the real server; other implementations
+ * can record or replay a session.
+ */
+public interface Transport {
+   @NonNull
+   RawResponse send(@NonNull HttpRequest request)
+       throws IOException, JSONException;
+}
@@ -0,0 +1,152 @@
+package com.slaterama.airtime.http;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.http.request.HttpRequest;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * A {@link Transport} that sends requests to the server using
+ * {@link HttpURLConnection}.
+ */
+public class UrlConnectionTransport implements Transport {
+
+   private static final String UTF_8 = "UTF-8";
+
+   /**
+    * The size of a newly-allocated read buffer when the response doesn't
+    * give a Content-Length.
+    */
+   private static final int INITIAL_BUFFER_SIZE = 8192;
+
+   /**
+    * Read buffers larger than this (i.e. grown for an unusually large
+    * response) aren't kept in the pool.
+    */
+   private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+   /**
+    * A read buffer per thread sending requests. A buffer is only in use
+    * for the duration of a single {@link #send} call on its thread.
+    */
+   private static final ThreadLocal<byte[]> BUFFER_POOL =
+       new ThreadLocal<>();
+
+   /**
+    * Opens the request's connection and reads the response body in one
+    * pass into the calling thread's pooled buffer, which is sized up front
+    * from the Content-Length when the server sends one. The body is then
+    * decoded to a string in a single step.
+    * <p>
+    * The connection is only disconnected if the exchange fails. Otherwise
+    * the body is read to the end and its stream closed, which hands the
+    * socket back to the pool for the next request (and is what makes
+    * warming up connections worthwhile).
+    * @param request The request to send.
+    * @return The raw response.
+    * @throws IOException
+    * @throws JSONException
+    */
+   @NonNull
+   @Override
+   public RawResponse send(@NonNull HttpRequest request)
+       throws IOException, JSONException {
+      HttpURLConnection connection = null;
+      boolean completed = false;
+      try {
+         connection = request.openConnection();
+         request.attachConnection(connection);
+         final int responseCode = connection.getResponseCode();
+         if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+            drain(connection.getErrorStream());
+            completed = true;
+            return new RawResponse(responseCode, null);
+         }
+
+         // Error bodies (i.e. 400s) are only available via the error
+         // stream, which is null if the server sent no body
+         final InputStream stream =
+             responseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                 ? connection.getErrorStream()
+                 : connection.getInputStream();
+         if (stream == null) {
+            completed = true;
+            return new RawResponse(responseCode, "");
+         }
+         final int contentLength = connection.getContentLength();
+
+         int allocations = 0;
+         byte[] buffer = BUFFER_POOL.get();
+         int required = Math.max(contentLength, INITIAL_BUFFER_SIZE);
+         if (buffer == null || buffer.length < contentLength) {
+            buffer = new byte[required];
+            allocations++;
+         }
+
+         int length = 0;
+         try {
+            while (contentLength < 0 || length < contentLength) {
+               if (length == buffer.length) {
+                  byte[] grown = new byte[buffer.length * 2];
+                  System.arraycopy(buffer, 0, grown, 0, length);
+                  buffer = grown;
+                  allocations++;
+               }
+               int read = stream.read(buffer, length, buffer.length - length);
+               if (read == -1) {
+                  break;
+               }
+               length += read;
+            }
+         } finally {
+            stream.close();
+         }
+
+         if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+            BUFFER_POOL.set(buffer);
+         }
+         completed = true;
+         return new RawResponse(
+             responseCode,
+             new String(buffer, 0, length, UTF_8),
+             length,
+             allocations);
+      } finally {
+         if (connection != null) {
+            request.attachConnection(null);
+            if (!completed) {
+               connection.disconnect();
+            }
+         }
+      }
+   }
+
+   /**
+    * Reads a body nobody needs to the end and closes it, so that its
+    * connection can be reused.
+    * @param stream The body, or null if there is none.
+    * @throws IOException
+    */
+   private static void drain(InputStream stream) throws IOException {
+      if (stream == null) {
+         return;
+      }
+      try {
+         byte[] buffer = BUFFER_POOL.get();
+         if (buffer == null) {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+            BUFFER_POOL.set(buffer);
+         }
+         while (stream.read(buffer) != -1) {
+            // Discard
+         }
+      } finally {
+         stream.close();
+      }
+   }
+}
@@ -42,6 +42,16 @@ public class CommandsRequest extends HttpRequest {
       mCommands = Collections.unmodifiableList(commands);
    }
 
+   @NonNull
+   public Drone getDrone() {
+      return mDrone;
+   }
+
+   @NonNull
+   public List<Command> getCommands() {
+      return mCommands;
+   }
+
    /**
     * Opens the {@link HttpURLConnection} needed by this request.
     * @return The open HttpURLConnection.
@@ -74,19 +84,20 @@ public class CommandsRequest extends HttpRequest {
    }
 
    /**
-    * Creates the body to send along with the request.
-    * @return The body as a JSON string.
-    * @throws JSONException
+    * Encodes the body to send along with the request into the calling
+    * thread's pooled {@link JsonBodyWriter}.
+    * @return The writer holding the encoded body.
     */
-   private String createBody()
-       throws JSONException {
-      JSONObject json = new JSONObject();
+   private JsonBodyWriter createBody() {
+      JsonBodyWriter body = JsonBodyWriter.obtain();
+      body.beginObject();
       for (Command command : mCommands) {
-         String commandId = command.getCommandId();
-         JSONObject value = new JSONObject();
-         value.put(command.getName(), command.getRoomId());
-         json.put(commandId, value);
+         body.name(command.getCommandId())
+             .beginObject()
+             .name(command.getName())
+             .value(command.getRoomId())
+             .endObject();
       }
-      return json.toString();
+      return body.endObject();
    }
 }
@@ -1,7 +1,11 @@
 package com.slaterama.airtime.http.request;
 
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.UrlConnectionTransport;
 import com.slaterama.airtime.http.response.ErrorResponse;
 import com.slaterama.airtime.http.response.HttpResponse;
 import com.slaterama.airtime.http.response.NotFoundResponse;
@@ -9,14 +13,16 @@ import com.slaterama.airtime.http.response.NotFoundResponse;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * The base class representing all HTTP requests.
@@ -30,12 +36,51 @@ public abstract class HttpRequest {
    private static final String HEADER_EMAIL_KEY = "x-commander-email";
    private static final String HEADER_EMAIL_VALUE = "slaterama@gmail.com";
 
-   private static final String UTF_8 = "UTF-8";
-   private static final String NEWLINE = "\n";
-
    protected static final String METHOD_GET = "GET";
    protected static final String METHOD_POST = "POST";
 
+   /**
+    * The {@link Transport} used when none is given.
+    */
+   private static final Transport DEFAULT_TRANSPORT =
+       new UrlConnectionTransport();
+
+   /**
+    * The number of times this request has been sent.
+    */
+   private int mAttempts;
+
+   /**
+    * How long the most recent attempt took, in nanoseconds.
+    */
+   private long mLatencyNanos;
+
+   /**
+    * The number of response body bytes read by the most recent attempt.
+    */
+   private int mResponseBytes;
+
+   /**
+    * The number of read buffers allocated by the most recent attempt.
+    */
+   private int mBufferAllocations;
+
+   /**
+    * When this request was last queued to be sent, in nanoseconds.
+    */
+   private long mQueuedNanos;
+
+   /**
+    * The connection of the attempt in progress, if any, so that it can be
+    * aborted from another thread.
+    */
+   private HttpURLConnection mConnection;
+
+   /**
+    * Whether this request has been aborted.
+    */
+   private boolean mAborted;
+
    /**
     * Creates a basic {@link HttpURLConnection} instance.
     * @param file The file to use when creating the URL for this request.
@@ -52,28 +97,120 @@ public abstract class HttpRequest {
    }
 
    /**
-    * Writes the given JSON string to the request body.
+    * Writes an encoded JSON body to the request in a single call. The
+    * connection is put in fixed-length streaming mode, so the body isn't
+    * copied into another buffer before it is sent.
     * @param conn An {@link HttpURLConnection} instance.
-    * @param json The JSON string to write.
+    * @param body The encoded JSON body.
     * @return The original HttpURLConnection instance.
     * @throws IOException
     */
    protected static HttpURLConnection writeBody(
        @NonNull HttpURLConnection conn,
-       @NonNull String json)
+       @NonNull JsonBodyWriter body)
        throws IOException {
-      byte[] bytes = json.getBytes(UTF_8);
       conn.setRequestProperty("Content-Type", "application/json");
       conn.setRequestProperty("Accept", "application/json");
-      conn.setRequestProperty(
-          "Content-length",
-          String.valueOf(bytes.length));
+      conn.setFixedLengthStreamingMode(body.length());
       OutputStream outputStream = conn.getOutputStream();
-      outputStream.write(bytes);
+      body.writeTo(outputStream);
       outputStream.close();
       return conn;
    }
 
+   /**
+    * Returns the number of times this request has been sent.
+    * @return The number of attempts.
+    */
+   public int getAttempts() {
+      return mAttempts;
+   }
+
+   /**
+    * Returns how long the most recent attempt took to send this request and
+    * receive a response.
+    * @return The latency, in nanoseconds.
+    */
+   public long getLatencyNanos() {
+      return mLatencyNanos;
+   }
+
+   /**
+    * Registers the connection of the attempt in progress, so that
+    * {@link #abort()} can close it. Transports call this as soon as the
+    * connection is open.
+    * @param connection The connection, or null once the attempt is over.
+    * @throws IOException If this request has already been aborted, in
+    * which case the connection is closed straight away.
+    */
+   public void attachConnection(HttpURLConnection connection)
+       throws IOException {
+      synchronized (this) {
+         if (!mAborted || connection == null) {
+            mConnection = connection;
+            return;
+         }
+      }
+      connection.disconnect();
+      throw new IOException("Request aborted");
+   }
+
+   /**
+    * Aborts this request. The connection of an attempt in progress is
+    * closed, which makes the sending thread fail with an
+    * {@link IOException} rather than wait for the server, and any further
+    * attempts fail straight away.
+    */
+   public void abort() {
+      HttpURLConnection connection;
+      synchronized (this) {
+         mAborted = true;
+         connection = mConnection;
+         mConnection = null;
+      }
+      if (connection != null) {
+         connection.disconnect();
+      }
+   }
+
+   public synchronized boolean isAborted() {
+      return mAborted;
+   }
+
+   /**
+    * Records when this request was queued to be sent.
+    * @param nanos The time, from {@link System#nanoTime()}.
+    */
+   public void setQueuedNanos(long nanos) {
+      mQueuedNanos = nanos;
+   }
+
+   /**
+    * Returns when this request was last queued to be sent.
+    * @return The time, from {@link System#nanoTime()}.
+    */
+   public long getQueuedNanos() {
+      return mQueuedNanos;
+   }
+
+   /**
+    * Returns the number of response body bytes read by the most recent
+    * attempt to send this request.
+    * @return The number of bytes.
+    */
+   public int getResponseBytes() {
+      return mResponseBytes;
+   }
+
+   /**
+    * Returns the number of read buffers allocated to receive the response
+    * to the most recent attempt to send this request.
+    * @return The number of buffer allocations.
+    */
+   public int getBufferAllocations() {
+      return mBufferAllocations;
+   }
+
    public abstract HttpURLConnection openConnection()
        throws IOException, JSONException;
 
@@ -83,58 +220,122 @@ public abstract class HttpRequest {
        throws JSONException;
 
    /**
-    * Creates an {@link HttpResponse} of the appropriate type based on
-    * the result of this request.
+    * Sends this request to the server and creates an {@link HttpResponse}
+    * of the appropriate type based on the result.
     * @return An HttpResponse instance.
     * @throws IOException
     * @throws JSONException
     */
    public HttpResponse getResponse()
        throws IOException, JSONException {
-      HttpResponse response = null;
-      HttpURLConnection connection = null;
-      try {
-         // Open the connection and read the response, one line at a time.
-         // Then attempt to create the appropriate response type.
-         connection = openConnection();
-         final InputStream stream =
-             new BufferedInputStream(connection.getInputStream());
-         final int responseCode = connection.getResponseCode();
-         switch (responseCode) {
-            case HttpURLConnection.HTTP_NOT_FOUND:
-               // Create a "not found" response
-               response = new NotFoundResponse(responseCode);
-               break;
-            case HttpURLConnection.HTTP_BAD_REQUEST:
-            case HttpURLConnection.HTTP_OK:
-            default:
-               // Read the response into a JSONObject
-               BufferedReader reader =
-                   new BufferedReader(new InputStreamReader(stream, UTF_8));
-               StringBuilder builder = new StringBuilder();
-               String line;
-               while ((line = reader.readLine()) != null) {
-                  if (builder.length() > 0) {
-                     builder.append(NEWLINE);
-                  }
-                  builder.append(line);
-               }
-               final JSONObject obj = new JSONObject(builder.toString());
-               if (responseCode == HttpURLConnection.HTTP_BAD_REQUEST) {
-                  // Create an error response
-                  response = new ErrorResponse(responseCode, obj);
+      return getResponse(DEFAULT_TRANSPORT);
+   }
+
+   /**
+    * Sends this request using the given {@link Transport} and creates an
+    * {@link HttpResponse} of the appropriate type based on the result.
+    * @param transport The transport used to send this request.
+    * @return An HttpResponse instance.
+    * @throws IOException
+    * @throws JSONException
+    */
+   public HttpResponse getResponse(@NonNull Transport transport)
+       throws IOException, JSONException {
+      if (isAborted()) {
+         throw new IOException("Request aborted");
+      }
+      mAttempts++;
+      long startTime = System.nanoTime();
+      RawResponse raw = transport.send(this);
+      mLatencyNanos = System.nanoTime() - startTime;
+      mResponseBytes = raw.getBodyBytes();
+      mBufferAllocations = raw.getBufferAllocations();
+      return parseResponse(raw);
+   }
+
+   /**
+    * Sends this request on the given {@link Executor} without blocking the
+    * caller. The callback is invoked on the executor's thread once the
+    * request completes (but not if the returned future is cancelled).
+    * @param transport The transport used to send this request.
+    * @param executor The executor the request is sent on.
+    * @param callback A callback that receives the response or error.
+    * @return A Future representing the pending response.
+    */
+   public Future<HttpResponse> getResponseAsync(
+       @NonNull final Transport transport,
+       @NonNull Executor executor,
+       @NonNull final ResponseCallback callback) {
+      FutureTask<HttpResponse> future = new FutureTask<HttpResponse>(
+          new Callable<HttpResponse>() {
+             @Override
+             public HttpResponse call() throws Exception {
+                return getResponse(transport);
+             }
+          }) {
+         @Override
+         protected void done() {
+            HttpResponse response;
+            try {
+               response = get();
+            } catch (CancellationException e) {
+               return;
+            } catch (InterruptedException e) {
+               callback.onError(HttpRequest.this, e);
+               return;
+            } catch (ExecutionException e) {
+               Throwable cause = e.getCause();
+               if (cause instanceof Exception) {
+                  callback.onError(HttpRequest.this, (Exception) cause);
                } else {
-                  // Create a response based on the request
-                  response = getResponse(responseCode, obj);
+                  callback.onError(HttpRequest.this, e);
                }
+               return;
+            }
+            callback.onResponse(HttpRequest.this, response);
          }
-      } catch (IOException | JSONException e) {
-         throw e;
-      } finally {
-         if (connection != null) {
-            connection.disconnect();
-         }
+      };
+      executor.execute(future);
+      return future;
+   }
+
+   /**
+    * Creates an {@link HttpResponse} of the appropriate type based on
+    * a raw response to this request.
+    * @param raw The raw response.
+    * @return An HttpResponse instance.
+    * @throws JSONException
+    */
+   public HttpResponse parseResponse(@NonNull RawResponse raw)
+       throws JSONException {
+      final int responseCode = raw.getResponseCode();
+      switch (responseCode) {
+         case HttpURLConnection.HTTP_NOT_FOUND:
+            // Create a "not found" response
+            return new NotFoundResponse(responseCode);
+         case HttpURLConnection.HTTP_BAD_REQUEST:
+            // Create an error response; the server may not have said why
+            String body = raw.getBody();
+            return new ErrorResponse(
+                responseCode,
+                TextUtils.isEmpty(body)
+                    ? new JSONObject()
+                    : new JSONObject(body),
+                this);
+         case HttpURLConnection.HTTP_OK:
+         default:
+            // Create a response based on the request
+            return getResponse(responseCode, new JSONObject(raw.getBody()));
       }
-      return response;
+   }
+
+   /**
+    * An interface that receives the result of an asynchronous request.
+    */
+   public interface ResponseCallback {
+      void onResponse(
+          @NonNull HttpRequest request,
+          @NonNull HttpResponse response);
+      void onError(@NonNull HttpRequest request, @NonNull Exception e);
    }
 }
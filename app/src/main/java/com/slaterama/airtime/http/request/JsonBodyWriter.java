@@ -0,0 +1,235 @@
+package com.slaterama.airtime.http.request;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a JSON request body directly into a reusable byte buffer as
+ * UTF-8, without building a tree of JSON objects or an intermediate
+ * string. Only what the request bodies need is supported: objects, names
+ * and string values.
+ * <p>
+ * Writers are pooled per thread. A body is encoded and written out within
+ * a single {@link HttpRequest#openConnection()} call on the thread sending
+ * the request, so a thread's writer is never shared, and the pool stays as
+ * small as the number of threads sending requests.
+ */
+public class JsonBodyWriter {
+
+   private static final int INITIAL_CAPACITY = 512;
+
+   /**
+    * Buffers larger than this (i.e. grown for an unusually large body)
+    * aren't kept past the body they were grown for.
+    */
+   private static final int MAX_POOLED_CAPACITY = 256 * 1024;
+
+   /**
+    * Written in place of a lone surrogate, as a UTF-8 decoder would.
+    */
+   private static final int REPLACEMENT_CHARACTER = 0xfffd;
+
+   private static final byte[] HEX = {
+       '0', '1', '2', '3', '4', '5', '6', '7',
+       '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+   };
+
+   private static final ThreadLocal<JsonBodyWriter> POOL =
+       new ThreadLocal<JsonBodyWriter>() {
+          @Override
+          protected JsonBodyWriter initialValue() {
+             return new JsonBodyWriter();
+          }
+       };
+
+   /**
+    * The encoded body.
+    */
+   @NonNull
+   private byte[] mBuffer;
+
+   /**
+    * The number of bytes of {@link #mBuffer} in use.
+    */
+   private int mLength;
+
+   /**
+    * Whether a comma must be written before the next name.
+    */
+   private boolean mNeedsComma;
+
+   private JsonBodyWriter() {
+      mBuffer = new byte[INITIAL_CAPACITY];
+   }
+
+   /**
+    * Returns the calling thread's writer, emptied and ready for a new body.
+    * @return The writer.
+    */
+   @NonNull
+   public static JsonBodyWriter obtain() {
+      JsonBodyWriter writer = POOL.get();
+      if (writer.mBuffer.length > MAX_POOLED_CAPACITY) {
+         writer.mBuffer = new byte[INITIAL_CAPACITY];
+      }
+      writer.mLength = 0;
+      writer.mNeedsComma = false;
+      return writer;
+   }
+
+   /**
+    * Returns the length of the encoded body, in bytes.
+    * @return The length.
+    */
+   public int length() {
+      return mLength;
+   }
+
+   public JsonBodyWriter beginObject() {
+      writeByte('{');
+      mNeedsComma = false;
+      return this;
+   }
+
+   public JsonBodyWriter endObject() {
+      writeByte('}');
+      mNeedsComma = true;
+      return this;
+   }
+
+   public JsonBodyWriter name(@NonNull String name) {
+      if (mNeedsComma) {
+         writeByte(',');
+      }
+      writeString(name);
+      writeByte(':');
+      mNeedsComma = false;
+      return this;
+   }
+
+   public JsonBodyWriter value(@NonNull String value) {
+      writeString(value);
+      mNeedsComma = true;
+      return this;
+   }
+
+   /**
+    * Begins a string value that is written in parts, so that a value made
+    * up of several strings needn't be concatenated first.
+    * @return This writer.
+    */
+   public JsonBodyWriter beginValue() {
+      writeByte('"');
+      return this;
+   }
+
+   /**
+    * Appends a part of the string value begun by {@link #beginValue()}.
+    * @param part The part to append.
+    * @return This writer.
+    */
+   public JsonBodyWriter valuePart(@NonNull String part) {
+      writeEscaped(part);
+      return this;
+   }
+
+   public JsonBodyWriter endValue() {
+      writeByte('"');
+      mNeedsComma = true;
+      return this;
+   }
+
+   /**
+    * Writes the encoded body to the given stream in a single call.
+    * @param out The stream to write to.
+    * @throws IOException
+    */
+   public void writeTo(@NonNull OutputStream out) throws IOException {
+      out.write(mBuffer, 0, mLength);
+   }
+
+   private void writeString(String s) {
+      writeByte('"');
+      writeEscaped(s);
+      writeByte('"');
+   }
+
+   private void writeEscaped(String s) {
+      int length = s.length();
+      for (int i = 0; i < length; i++) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"':
+            case '\\':
+               writeByte('\\');
+               writeByte(c);
+               break;
+            case '\n':
+               writeByte('\\');
+               writeByte('n');
+               break;
+            case '\r':
+               writeByte('\\');
+               writeByte('r');
+               break;
+            case '\t':
+               writeByte('\\');
+               writeByte('t');
+               break;
+            default:
+               if (c < 0x20) {
+                  ensureCapacity(6);
+                  mBuffer[mLength++] = '\\';
+                  mBuffer[mLength++] = 'u';
+                  mBuffer[mLength++] = '0';
+                  mBuffer[mLength++] = '0';
+                  mBuffer[mLength++] = HEX[c >> 4];
+                  mBuffer[mLength++] = HEX[c & 0xf];
+               } else if (c < 0x80) {
+                  writeByte(c);
+               } else if (Character.isHighSurrogate(c)
+                   && i + 1 < length
+                   && Character.isLowSurrogate(s.charAt(i + 1))) {
+                  writeCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+               } else if (c >= Character.MIN_SURROGATE
+                   && c <= Character.MAX_SURROGATE) {
+                  // A lone surrogate has no UTF-8 encoding
+                  writeCodePoint(REPLACEMENT_CHARACTER);
+               } else {
+                  writeCodePoint(c);
+               }
+         }
+      }
+   }
+
+   private void writeCodePoint(int codePoint) {
+      ensureCapacity(4);
+      if (codePoint < 0x800) {
+         mBuffer[mLength++] = (byte) (0xc0 | (codePoint >> 6));
+      } else if (codePoint < 0x10000) {
+         mBuffer[mLength++] = (byte) (0xe0 | (codePoint >> 12));
+         mBuffer[mLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+      } else {
+         mBuffer[mLength++] = (byte) (0xf0 | (codePoint >> 18));
+         mBuffer[mLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+         mBuffer[mLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+      }
+      mBuffer[mLength++] = (byte) (0x80 | (codePoint & 0x3f));
+   }
+
+   private void writeByte(int b) {
+      ensureCapacity(1);
+      mBuffer[mLength++] = (byte) b;
+   }
+
+   private void ensureCapacity(int extra) {
+      if (mLength + extra > mBuffer.length) {
+         int capacity = Math.max(mBuffer.length * 2, mLength + extra);
+         byte[] buffer = new byte[capacity];
+         System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+         mBuffer = buffer;
+      }
+   }
+}
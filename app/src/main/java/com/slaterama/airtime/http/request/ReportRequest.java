@@ -22,23 +22,38 @@ public class ReportRequest extends HttpRequest {
    private static final String JSON_MESSAGE = "message";
 
    /**
-    * The concatenated writings string.
+    * The texts of the writings, in order. The texts are shared with the
+    * writings rather than copied, and are only concatenated as they are
+    * encoded into the request body.
     */
    @NonNull
-   private final String mMessage;
+   private final String[] mTexts;
 
    /**
-    * Concatenates the writings into a single string.
+    * Takes the texts of the writings in order.
     * @param writings An (ordered) SparseArray of individual writings.
     */
    public ReportRequest(SparseArray<Writing> writings) {
-      StringBuilder builder = new StringBuilder();
       int size = writings.size();
+      mTexts = new String[size];
       for (int i = 0; i < size; i++) {
-         Writing writing = writings.valueAt(i);
-         builder.append(writing.getText());
+         mTexts[i] = writings.valueAt(i).getText();
       }
-      mMessage = builder.toString();
+   }
+
+   /**
+    * Concatenates the writings into the message being reported. The body of
+    * the request is encoded without this, so it is only needed by whatever
+    * wants to inspect the request.
+    * @return The message.
+    */
+   @NonNull
+   public String getMessage() {
+      StringBuilder builder = new StringBuilder();
+      for (String text : mTexts) {
+         builder.append(text);
+      }
+      return builder.toString();
    }
 
    /**
@@ -72,14 +87,17 @@ public class ReportRequest extends HttpRequest {
    }
 
    /**
-    * Creates the body to send along with the request.
-    * @return The body as a JSON string.
-    * @throws JSONException
+    * Encodes the body to send along with the request into the calling
+    * thread's pooled {@link JsonBodyWriter}, escaping each writing's text
+    * straight into the message value.
+    * @return The writer holding the encoded body.
     */
-   private String createBody()
-       throws JSONException {
-      JSONObject json = new JSONObject();
-      json.put(JSON_MESSAGE, mMessage);
-      return json.toString();
+   private JsonBodyWriter createBody() {
+      JsonBodyWriter body = JsonBodyWriter.obtain();
+      body.beginObject().name(JSON_MESSAGE).beginValue();
+      for (String text : mTexts) {
+         body.valuePart(text);
+      }
+      return body.endValue().endObject();
    }
 }
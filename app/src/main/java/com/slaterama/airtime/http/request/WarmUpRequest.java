@@ -0,0 +1,50 @@
+package com.slaterama.airtime.http.request;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.http.response.HttpResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * An HttpRequest class that encapsulates a "HEAD" request for the server's
+ * root, which does nothing but open a connection that is then kept alive
+ * for the requests that follow. Warm-up requests are sent straight through
+ * a {@link com.slaterama.airtime.http.Transport} and their responses are
+ * never parsed.
+ */
+public class WarmUpRequest extends HttpRequest {
+
+   private static final String ROOT_FILE = "/";
+   private static final String METHOD_HEAD = "HEAD";
+
+   /**
+    * Opens the {@link HttpURLConnection} needed by this request.
+    * @return The open HttpURLConnection.
+    * @throws IOException
+    * @throws JSONException
+    */
+   @Override
+   public HttpURLConnection openConnection()
+       throws IOException, JSONException {
+      HttpURLConnection conn = createConnection(ROOT_FILE);
+      conn.setRequestMethod(METHOD_HEAD);
+      return conn;
+   }
+
+   /**
+    * Warm-up responses have no body to parse.
+    * @throws JSONException Always.
+    */
+   @Override
+   protected HttpResponse getResponse(
+       int responseCode,
+       @NonNull JSONObject obj)
+       throws JSONException {
+      throw new JSONException("Warm-up requests have no response");
+   }
+}
@@ -2,6 +2,8 @@ package com.slaterama.airtime.http.response;
 
 import android.support.annotation.NonNull;
 
+import com.slaterama.airtime.http.request.HttpRequest;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -18,14 +20,29 @@ public class ErrorResponse extends HttpResponse {
    @NonNull
    private final String mError;
 
-   public ErrorResponse(int responseCode, @NonNull JSONObject obj)
+   /**
+    * The request that was rejected.
+    */
+   @NonNull
+   private final HttpRequest mRequest;
+
+   public ErrorResponse(
+       int responseCode,
+       @NonNull JSONObject obj,
+       @NonNull HttpRequest request)
        throws JSONException {
       super(responseCode);
-      mError = obj.getString(JSON_ERROR);
+      mError = obj.optString(JSON_ERROR);
+      mRequest = request;
    }
 
    @NonNull
    public String getError() {
       return mError;
    }
+
+   @NonNull
+   public HttpRequest getRequest() {
+      return mRequest;
+   }
 }
@@ -2,13 +2,33 @@ package com.slaterama.airtime.model;
 
 import android.support.annotation.NonNull;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
  * A class representing a room.
+ * <p>
+ * Rooms are shared between the main thread, which resolves and compacts
+ * them, and the drone threads that walk through them, so all of a room's
+ * state is guarded by the room's monitor. A drone that needs both to know
+ * whether a room is explored and to walk its connections must use the
+ * single snapshot returned by {@link #getConnections()}, since the room may
+ * be compacted in between two separate calls.
+ * <p>
+ * Rooms are created by a {@link RoomTable}, and refer to their connections
+ * by their number in that table, so that a compacted room isn't kept in
+ * memory by its neighbours.
  */
 public class Room {
 
+   @NonNull
+   private final RoomTable mTable;
+
+   /**
+    * This room's number in {@link #mTable}.
+    */
+   private final int mIndex;
+
    @NonNull
    private final String mId;
 
@@ -25,53 +45,192 @@ public class Room {
    private boolean mAwaitingWriting = false;
 
    /**
-    * The connecting rooms associated with this room.
+    * Whether this room has been assigned to a drone.
+    */
+   private boolean mScheduled = false;
+
+   /**
+    * Whether this room has been compacted, i.e. its connections and writing
+    * have been dropped from memory because nothing will look at them again.
+    */
+   private boolean mCompacted = false;
+
+   /**
+    * How promising this room looks to a best-first frontier. Higher is
+    * visited sooner.
+    */
+   private int mPriority = 0;
+
+   /**
+    * The numbers of the connecting rooms associated with this room.
     */
-   private List<Room> mConnections;
+   private int[] mConnections;
 
    /**
     * The writing associated with this room.
     */
    private Writing mWriting;
 
-   public Room(@NonNull String id) {
+   Room(@NonNull RoomTable table, int index, @NonNull String id) {
+      mTable = table;
+      mIndex = index;
       mId = id;
    }
 
+   /**
+    * Returns this room's number in the table it belongs to.
+    * @return The room number.
+    */
+   int getIndex() {
+      return mIndex;
+   }
+
    @NonNull
    public String getId() {
       return mId;
    }
 
-   public boolean isAwaitingConnections() {
+   public synchronized boolean isAwaitingConnections() {
       return mAwaitingConnections;
    }
 
-   public void setAwaitingConnections(boolean awaitingConnections) {
+   public synchronized void setAwaitingConnections(
+       boolean awaitingConnections) {
       mAwaitingConnections = awaitingConnections;
    }
 
-   public boolean isAwaitingWriting() {
+   public synchronized boolean isAwaitingWriting() {
       return mAwaitingWriting;
    }
 
-   public void setAwaitingWriting(boolean awaitingWriting) {
+   public synchronized void setAwaitingWriting(boolean awaitingWriting) {
       mAwaitingWriting = awaitingWriting;
    }
 
+   /**
+    * Marks this room as assigned to a drone.
+    * @return True if the room was not already assigned to a drone.
+    */
+   public synchronized boolean markScheduled() {
+      if (mScheduled) {
+         return false;
+      }
+      mScheduled = true;
+      return true;
+   }
+
+   /**
+    * Returns whether this room has been assigned to a drone.
+    * @return Whether this room has been assigned to a drone.
+    */
+   public synchronized boolean isScheduled() {
+      return mScheduled;
+   }
+
+   /**
+    * Returns whether this room is fully resolved (explored and read) and
+    * every connecting room has been assigned to a drone, i.e. nothing is
+    * left to learn by walking through it.
+    * @return Whether this room can be compacted.
+    */
+   public boolean isCompactable() {
+      int[] connections;
+      synchronized (this) {
+         if (mCompacted || mConnections == null || mWriting == null) {
+            return false;
+         }
+         connections = mConnections;
+      }
+      // Other monitors are only taken once this one is released. Compacted
+      // connections are left out, and they're scheduled anyway.
+      for (Room connection : mTable.getRooms(connections)) {
+         if (!connection.isScheduled()) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Drops this room's connections and writing. A compacted room still
+    * reports that it has connections and writing (so no drone queries it
+    * again), but {@link #getConnections()} returns an empty list and
+    * {@link #getWriting()} returns null. Only {@link RoomTable#compact}
+    * should call this, so that the table lets go of the room as well.
+    */
+   synchronized void compact() {
+      mScheduled = true;
+      mCompacted = true;
+      mConnections = null;
+      mWriting = null;
+   }
+
+   public synchronized boolean isCompacted() {
+      return mCompacted;
+   }
+
+   public synchronized int getPriority() {
+      return mPriority;
+   }
+
+   /**
+    * Raises this room's priority, e.g. because the room it was found
+    * through leads to lots of unexplored rooms.
+    * @param amount The amount to raise it by.
+    */
+   public synchronized void raisePriority(int amount) {
+      mPriority += amount;
+   }
+
    /**
     * Returns whether connections have been returned for this room.
     * @return Whether connections have been returned for this room.
     */
-   public boolean hasConnections() {
-      return (mConnections != null);
+   public synchronized boolean hasConnections() {
+      return (mConnections != null || mCompacted);
    }
 
+   /**
+    * Returns the connecting rooms of this room as one consistent snapshot.
+    * Connecting rooms that have been compacted are left out.
+    * @return The connecting rooms, an empty list if this room has been
+    * compacted, or null if connections haven't been returned yet.
+    */
    public List<Room> getConnections() {
-      return mConnections;
+      int[] connections;
+      synchronized (this) {
+         if (mCompacted) {
+            return Collections.emptyList();
+         }
+         connections = mConnections;
+      }
+      // The table's monitor is only taken once this one is released
+      return (connections == null ? null : mTable.getRooms(connections));
    }
 
-   public void setConnections(List<Room> connections) {
+   /**
+    * Returns the ids of all of this room's connecting rooms, including
+    * compacted ones.
+    * @return The connecting room ids, an empty list if this room has been
+    * compacted, or null if connections haven't been returned yet.
+    */
+   public List<String> getConnectionIds() {
+      int[] connections;
+      synchronized (this) {
+         if (mCompacted) {
+            return Collections.emptyList();
+         }
+         connections = mConnections;
+      }
+      return (connections == null ? null : mTable.getIds(connections));
+   }
+
+   /**
+    * Sets the connecting rooms of this room.
+    * @param connections The connecting room numbers, as returned by
+    * {@link RoomTable#resolveAll}.
+    */
+   public synchronized void setConnections(@NonNull int[] connections) {
       mConnections = connections;
       mAwaitingConnections = false;
    }
@@ -82,15 +241,20 @@ public class Room {
     * {@link Writing} instances that represent rooms with no writing.
     * @return Whether writing has been returned for this room.
     */
-   public boolean hasWriting() {
-      return (mWriting != null);
+   public synchronized boolean hasWriting() {
+      return (mWriting != null || mCompacted);
    }
 
-   public Writing getWriting() {
+   /**
+    * Returns the writing associated with this room.
+    * @return The writing, or null if it hasn't been returned yet or this
+    * room has been compacted.
+    */
+   public synchronized Writing getWriting() {
       return mWriting;
    }
 
-   public void setWriting(Writing writing) {
+   public synchronized void setWriting(Writing writing) {
       mWriting = writing;
       mAwaitingWriting = false;
    }
@@ -0,0 +1,263 @@
+package com.slaterama.airtime.model;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Every room of a maze, numbered in the order the rooms were found. Rooms
+ * refer to their connections by number rather than by reference, so once
+ * a room is compacted nothing holds on to its {@link Room} and all that is
+ * left of it is its id and a bit.
+ * <p>
+ * Room ids are opaque strings that the server uses to name connections,
+ * so they are kept even for compacted rooms; otherwise a compacted room
+ * reached again from a new neighbour would be explored all over again.
+ * Ids are looked up through an open-addressed hash table of room numbers,
+ * so a room costs no more than its id, a few array slots and a bit.
+ * <p>
+ * The table is shared between the main thread, which adds and compacts
+ * rooms, and the drone threads that walk connections, so its methods are
+ * synchronized. It never takes a room's monitor while holding its own.
+ */
+public class RoomTable {
+
+   private static final int INITIAL_CAPACITY = 64;
+
+   /**
+    * The id of each room, by number.
+    */
+   @NonNull
+   private String[] mIds;
+
+   /**
+    * Each room, by number, or null once it has been compacted.
+    */
+   @NonNull
+   private Room[] mRooms;
+
+   /**
+    * The numbers of the rooms that have been compacted.
+    */
+   @NonNull
+   private final BitSet mCompacted;
+
+   /**
+    * The hash table of room numbers, keyed by room id. Each slot holds a
+    * room number plus one, or zero if the slot is empty. Its length is a
+    * power of two, at least twice the number of rooms.
+    */
+   @NonNull
+   private int[] mSlots;
+
+   /**
+    * The number of rooms.
+    */
+   private int mSize;
+
+   /**
+    * The number of rooms that have been compacted.
+    */
+   private int mCompactedCount;
+
+   public RoomTable() {
+      mIds = new String[INITIAL_CAPACITY];
+      mRooms = new Room[INITIAL_CAPACITY];
+      mCompacted = new BitSet();
+      mSlots = new int[INITIAL_CAPACITY * 2];
+   }
+
+   /**
+    * Returns the number of rooms, including compacted ones.
+    * @return The number of rooms.
+    */
+   public synchronized int size() {
+      return mSize;
+   }
+
+   /**
+    * Returns the number of rooms still held in memory.
+    * @return The number of rooms that haven't been compacted.
+    */
+   public synchronized int getLiveCount() {
+      return mSize - mCompactedCount;
+   }
+
+   /**
+    * Returns the number of rooms that have been compacted.
+    * @return The number of compacted rooms.
+    */
+   public synchronized int getCompactedCount() {
+      return mCompactedCount;
+   }
+
+   /**
+    * Returns the room with the given id, adding it if it is new.
+    * @param roomId The room id.
+    * @return The room, or null if it has been compacted.
+    */
+   public synchronized Room resolve(@NonNull String roomId) {
+      return mRooms[intern(roomId)];
+   }
+
+   /**
+    * Returns the numbers of the rooms with the given ids, adding any that
+    * are new.
+    * @param roomIds The room ids.
+    * @return The room numbers, in the same order.
+    */
+   @NonNull
+   public synchronized int[] resolveAll(@NonNull List<String> roomIds) {
+      int[] indices = new int[roomIds.size()];
+      for (int i = 0; i < indices.length; i++) {
+         indices[i] = intern(roomIds.get(i));
+      }
+      return indices;
+   }
+
+   /**
+    * Returns whether the room with the given id has been compacted.
+    * @param roomId The room id.
+    * @return Whether the room is known and has been compacted.
+    */
+   public synchronized boolean isCompacted(@NonNull String roomId) {
+      int index = find(roomId);
+      return index >= 0 && mCompacted.get(index);
+   }
+
+   /**
+    * Returns the rooms with the given numbers that are still in memory.
+    * Compacted rooms are left out, since nothing is left to do for them.
+    * @param indices The room numbers.
+    * @return The rooms, in the same order.
+    */
+   @NonNull
+   public synchronized List<Room> getRooms(@NonNull int[] indices) {
+      List<Room> rooms = new ArrayList<>(indices.length);
+      for (int index : indices) {
+         Room room = mRooms[index];
+         if (room != null) {
+            rooms.add(room);
+         }
+      }
+      return rooms;
+   }
+
+   /**
+    * Returns the ids of the rooms with the given numbers, including
+    * compacted ones.
+    * @param indices The room numbers.
+    * @return The room ids, in the same order.
+    */
+   @NonNull
+   public synchronized List<String> getIds(@NonNull int[] indices) {
+      List<String> ids = new ArrayList<>(indices.length);
+      for (int index : indices) {
+         ids.add(mIds[index]);
+      }
+      return ids;
+   }
+
+   /**
+    * Returns every room still in memory, in the order they were found.
+    * @return A snapshot of the rooms that haven't been compacted.
+    */
+   @NonNull
+   public synchronized List<Room> getLiveRooms() {
+      List<Room> rooms = new ArrayList<>(mSize - mCompactedCount);
+      for (int i = 0; i < mSize; i++) {
+         if (mRooms[i] != null) {
+            rooms.add(mRooms[i]);
+         }
+      }
+      return rooms;
+   }
+
+   /**
+    * Compacts a room and lets go of it. The room keeps answering anyone
+    * still holding it (e.g. a drone's frontier) as a compacted room.
+    * @param room The room, which must belong to this table.
+    */
+   public void compact(@NonNull Room room) {
+      room.compact();
+      synchronized (this) {
+         int index = room.getIndex();
+         if (mRooms[index] == room) {
+            mRooms[index] = null;
+            mCompacted.set(index);
+            mCompactedCount++;
+         }
+      }
+   }
+
+   /**
+    * Returns the number of the room with the given id, adding the room if
+    * it is new. Must be called while synchronized on this table.
+    */
+   private int intern(@NonNull String roomId) {
+      int mask = mSlots.length - 1;
+      int slot = hash(roomId) & mask;
+      while (mSlots[slot] != 0) {
+         int index = mSlots[slot] - 1;
+         if (mIds[index].equals(roomId)) {
+            return index;
+         }
+         slot = (slot + 1) & mask;
+      }
+
+      int index = mSize++;
+      if (index == mIds.length) {
+         mIds = Arrays.copyOf(mIds, index * 2);
+         mRooms = Arrays.copyOf(mRooms, index * 2);
+      }
+      mIds[index] = roomId;
+      mRooms[index] = new Room(this, index, roomId);
+      mSlots[slot] = index + 1;
+      if (mSize * 2 > mSlots.length) {
+         rehash();
+      }
+      return index;
+   }
+
+   /**
+    * Returns the number of the room with the given id, or -1 if there is
+    * no such room. Must be called while synchronized on this table.
+    */
+   private int find(@NonNull String roomId) {
+      int mask = mSlots.length - 1;
+      int slot = hash(roomId) & mask;
+      while (mSlots[slot] != 0) {
+         int index = mSlots[slot] - 1;
+         if (mIds[index].equals(roomId)) {
+            return index;
+         }
+         slot = (slot + 1) & mask;
+      }
+      return -1;
+   }
+
+   private void rehash() {
+      int[] slots = new int[mSlots.length * 2];
+      int mask = slots.length - 1;
+      for (int index = 0; index < mSize; index++) {
+         int slot = hash(mIds[index]) & mask;
+         while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+         }
+         slots[slot] = index + 1;
+      }
+      mSlots = slots;
+   }
+
+   /**
+    * Spreads the bits of a string's hash code, since the table only looks
+    * at the low bits.
+    */
+   private static int hash(@NonNull String s) {
+      int h = s.hashCode();
+      return h ^ (h >>> 16);
+   }
+}
@@ -0,0 +1,430 @@
+package com.slaterama.airtime.persist;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.model.Room;
+import com.slaterama.airtime.model.Writing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, binary, append-only log of an exploration session. Each
+ * discovered connection list, writing and drone frontier is appended as a
+ * small record as it happens; {@link #compact} periodically rewrites the log
+ * so that it holds just one record per room and drone. If the process dies,
+ * {@link #load()} replays the log to rebuild the session.
+ */
+public class Checkpoint {
+
+   private static final String LOG_FILE = "checkpoint.log";
+   private static final String COMPACT_FILE = "checkpoint.tmp";
+
+   private static final int VERSION = 1;
+
+   private static final byte RECORD_START = 1;
+   private static final byte RECORD_CONNECTIONS = 2;
+   private static final byte RECORD_WRITING = 3;
+   private static final byte RECORD_FRONTIER = 4;
+
+   /**
+    * The log file.
+    */
+   @NonNull
+   private final File mFile;
+
+   /**
+    * The temporary file written during compaction.
+    */
+   @NonNull
+   private final File mCompactFile;
+
+   /**
+    * The stream records are appended to, or null if the log isn't open.
+    */
+   private DataOutputStream mOut;
+
+   /**
+    * The number of records appended since the last compaction.
+    */
+   private int mRecordCount;
+
+   public Checkpoint(@NonNull File dir) {
+      mFile = new File(dir, LOG_FILE);
+      mCompactFile = new File(dir, COMPACT_FILE);
+   }
+
+   /**
+    * Returns whether there is a checkpoint on disk that can be resumed.
+    * @return Whether a checkpoint exists.
+    */
+   public boolean exists() {
+      return mFile.length() > 0;
+   }
+
+   /**
+    * Returns the number of records appended since the last compaction.
+    * @return The number of records.
+    */
+   public int getRecordCount() {
+      return mRecordCount;
+   }
+
+   /**
+    * Discards any existing checkpoint and starts a new log for the given
+    * session.
+    * @param roomId The start room id.
+    * @param droneIds The ids of the drones in play.
+    * @throws IOException
+    */
+   public void begin(@NonNull String roomId, @NonNull List<String> droneIds)
+       throws IOException {
+      close();
+      mOut = openStream(mFile, false);
+      mOut.writeInt(VERSION);
+      writeStart(mOut, roomId, droneIds);
+      mOut.flush();
+      mRecordCount = 0;
+   }
+
+   /**
+    * Re-opens an existing log for appending (i.e. after a resume).
+    * @throws IOException
+    */
+   public void reopen() throws IOException {
+      close();
+      mOut = openStream(mFile, true);
+   }
+
+   /**
+    * Appends the connections of the given room.
+    * @param room The room, whose connections must have been returned.
+    * @throws IOException
+    */
+   public void appendConnections(@NonNull Room room) throws IOException {
+      if (mOut != null) {
+         writeConnections(mOut, room, room.getConnectionIds());
+         mRecordCount++;
+      }
+   }
+
+   /**
+    * Appends the writing of the given room.
+    * @param room The room, whose writing must have been returned.
+    * @throws IOException
+    */
+   public void appendWriting(@NonNull Room room) throws IOException {
+      if (mOut != null) {
+         writeWriting(mOut, room, room.getWriting());
+         mRecordCount++;
+      }
+   }
+
+   /**
+    * Appends a drone's frontier. Later frontier records for the same drone
+    * replace earlier ones.
+    * @param droneId The drone id.
+    * @param frontier The rooms the drone has yet to query.
+    * @throws IOException
+    */
+   public void appendFrontier(
+       @NonNull String droneId,
+       @NonNull Collection<Room> frontier)
+       throws IOException {
+      if (mOut != null) {
+         writeFrontier(mOut, droneId, frontier);
+         mRecordCount++;
+      }
+   }
+
+   /**
+    * Flushes appended records to disk.
+    * @throws IOException
+    */
+   public void flush() throws IOException {
+      if (mOut != null) {
+         mOut.flush();
+      }
+   }
+
+   /**
+    * Rewrites the log so that it contains exactly one record per resolved
+    * room and drone, then continues appending to the compacted log.
+    * @param roomId The start room id.
+    * @param droneIds The ids of the drones in play.
+    * @param rooms All rooms currently known.
+    * @param frontiers Each drone's current frontier, keyed by drone id.
+    * @throws IOException
+    */
+   public void compact(
+       @NonNull String roomId,
+       @NonNull List<String> droneIds,
+       @NonNull Collection<Room> rooms,
+       @NonNull Map<String, ? extends Collection<Room>> frontiers)
+       throws IOException {
+      close();
+      DataOutputStream out = openStream(mCompactFile, false);
+      try {
+         out.writeInt(VERSION);
+         writeStart(out, roomId, droneIds);
+         for (Room room : rooms) {
+            List<String> connections = room.getConnectionIds();
+            if (connections != null) {
+               writeConnections(out, room, connections);
+            }
+            Writing writing = room.getWriting();
+            if (writing != null) {
+               writeWriting(out, room, writing);
+            }
+         }
+         for (Map.Entry<String, ? extends Collection<Room>> entry
+             : frontiers.entrySet()) {
+            writeFrontier(out, entry.getKey(), entry.getValue());
+         }
+      } finally {
+         out.close();
+      }
+      if (!mCompactFile.renameTo(mFile)) {
+         throw new IOException("Unable to replace " + mFile);
+      }
+      mOut = openStream(mFile, true);
+      mRecordCount = 0;
+   }
+
+   /**
+    * Closes the log and deletes it from disk.
+    */
+   public void clear() {
+      try {
+         close();
+      } catch (IOException e) {
+         // Ignore; we're deleting it anyway
+      }
+      //noinspection ResultOfMethodCallIgnored
+      mFile.delete();
+   }
+
+   /**
+    * Closes the log.
+    * @throws IOException
+    */
+   public void close() throws IOException {
+      if (mOut != null) {
+         mOut.close();
+         mOut = null;
+      }
+   }
+
+   /**
+    * Reads the log back into memory. A record cut short by a crash is
+    * silently dropped.
+    * @return The checkpointed state, or null if there is no usable
+    * checkpoint.
+    * @throws IOException
+    */
+   public State load() throws IOException {
+      if (!exists()) {
+         return null;
+      }
+
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(mFile)));
+      try {
+         if (in.readInt() != VERSION || in.readByte() != RECORD_START) {
+            return null;
+         }
+         State state = new State(in.readUTF(), readStrings(in));
+         while (true) {
+            byte type;
+            try {
+               type = in.readByte();
+            } catch (EOFException e) {
+               break;
+            }
+            try {
+               readRecord(in, type, state);
+            } catch (EOFException e) {
+               // Truncated record at the tail of the log
+               break;
+            }
+         }
+         return state;
+      } catch (EOFException e) {
+         return null;
+      } finally {
+         in.close();
+      }
+   }
+
+   private static DataOutputStream openStream(File file, boolean append)
+       throws IOException {
+      return new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file, append)));
+   }
+
+   private static void writeStart(
+       DataOutputStream out,
+       String roomId,
+       List<String> droneIds)
+       throws IOException {
+      out.writeByte(RECORD_START);
+      out.writeUTF(roomId);
+      out.writeInt(droneIds.size());
+      for (String droneId : droneIds) {
+         out.writeUTF(droneId);
+      }
+   }
+
+   private static void writeConnections(
+       DataOutputStream out,
+       Room room,
+       List<String> connections)
+       throws IOException {
+      out.writeByte(RECORD_CONNECTIONS);
+      out.writeUTF(room.getId());
+      out.writeInt(connections.size());
+      for (String connection : connections) {
+         out.writeUTF(connection);
+      }
+   }
+
+   private static void writeWriting(
+       DataOutputStream out,
+       Room room,
+       Writing writing)
+       throws IOException {
+      out.writeByte(RECORD_WRITING);
+      out.writeUTF(room.getId());
+      out.writeUTF(writing.getText());
+      out.writeInt(writing.getOrder());
+   }
+
+   private static void writeFrontier(
+       DataOutputStream out,
+       String droneId,
+       Collection<Room> frontier)
+       throws IOException {
+      out.writeByte(RECORD_FRONTIER);
+      out.writeUTF(droneId);
+      out.writeInt(frontier.size());
+      for (Room room : frontier) {
+         out.writeUTF(room.getId());
+      }
+   }
+
+   private static void readRecord(DataInputStream in, byte type, State state)
+       throws IOException {
+      switch (type) {
+         case RECORD_CONNECTIONS: {
+            String roomId = in.readUTF();
+            state.mConnections.put(roomId, readStrings(in));
+            break;
+         }
+         case RECORD_WRITING: {
+            String roomId = in.readUTF();
+            String text = in.readUTF();
+            int order = in.readInt();
+            state.mWritings.put(roomId, new Writing(text, order));
+            break;
+         }
+         case RECORD_FRONTIER: {
+            String droneId = in.readUTF();
+            state.mFrontiers.put(droneId, readStrings(in));
+            break;
+         }
+         default:
+            throw new IOException("Unknown checkpoint record " + type);
+      }
+   }
+
+   private static List<String> readStrings(DataInputStream in)
+       throws IOException {
+      int size = in.readInt();
+      List<String> strings = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+         strings.add(in.readUTF());
+      }
+      return strings;
+   }
+
+   /**
+    * The state of a session as read back from a checkpoint.
+    */
+   public static class State {
+
+      @NonNull
+      private final String mRoomId;
+
+      @NonNull
+      private final List<String> mDroneIds;
+
+      @NonNull
+      private final Map<String, List<String>> mConnections;
+
+      @NonNull
+      private final Map<String, Writing> mWritings;
+
+      @NonNull
+      private final Map<String, List<String>> mFrontiers;
+
+      private State(@NonNull String roomId, @NonNull List<String> droneIds) {
+         mRoomId = roomId;
+         mDroneIds = Collections.unmodifiableList(droneIds);
+         // Kept in log order, so that a resumed session revisits rooms in
+         // the order they were found
+         mConnections = new LinkedHashMap<>();
+         mWritings = new LinkedHashMap<>();
+         mFrontiers = new LinkedHashMap<>();
+      }
+
+      @NonNull
+      public String getRoomId() {
+         return mRoomId;
+      }
+
+      @NonNull
+      public List<String> getDroneIds() {
+         return mDroneIds;
+      }
+
+      /**
+       * Returns the connecting room ids of each resolved room.
+       * @return A map of room id to connecting room ids.
+       */
+      @NonNull
+      public Map<String, List<String>> getConnections() {
+         return mConnections;
+      }
+
+      /**
+       * Returns the writing found in each read room.
+       * @return A map of room id to writing.
+       */
+      @NonNull
+      public Map<String, Writing> getWritings() {
+         return mWritings;
+      }
+
+      /**
+       * Returns the most recent frontier of each drone.
+       * @return A map of drone id to the room ids left to query.
+       */
+      @NonNull
+      public Map<String, List<String>> getFrontiers() {
+         return mFrontiers;
+      }
+   }
+}
@@ -0,0 +1,229 @@
+package com.slaterama.airtime.persist;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.model.Room;
+import com.slaterama.airtime.model.Writing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An on-disk cache of fully-explored mazes. Each maze is stored in its own
+ * file keyed by its start room id, and holds the connections and writing
+ * of every room the drones resolved. Repeated runs against the same maze
+ * can then skip the "explore" and "read" commands for any cached room.
+ */
+public class RoomCache {
+
+   private static final String CACHE_DIR = "rooms";
+   private static final String CACHE_EXTENSION = ".bin";
+   private static final String TEMP_EXTENSION = ".tmp";
+
+   private static final int VERSION = 1;
+
+   /**
+    * The directory holding one file per cached maze.
+    */
+   @NonNull
+   private final File mDir;
+
+   public RoomCache(@NonNull File dir) {
+      mDir = new File(dir, CACHE_DIR);
+   }
+
+   /**
+    * Loads the cached rooms of the maze with the given start room.
+    * @param startRoomId The start room id of the maze.
+    * @return A map of room id to cached room data, which will be empty if
+    * the maze hasn't been cached (or the cache is unreadable).
+    * @throws IOException
+    */
+   @NonNull
+   public Map<String, Entry> load(@NonNull String startRoomId)
+       throws IOException {
+      File file = getFile(startRoomId, CACHE_EXTENSION);
+      if (!file.isFile()) {
+         return Collections.emptyMap();
+      }
+
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(file)));
+      try {
+         if (in.readInt() != VERSION) {
+            return Collections.emptyMap();
+         }
+         int size = in.readInt();
+         Map<String, Entry> entries = new HashMap<>(size * 4 / 3 + 1);
+         for (int i = 0; i < size; i++) {
+            String roomId = in.readUTF();
+            List<String> connections = null;
+            if (in.readBoolean()) {
+               int count = in.readInt();
+               connections = new ArrayList<>(count);
+               for (int j = 0; j < count; j++) {
+                  connections.add(in.readUTF());
+               }
+            }
+            Writing writing = null;
+            if (in.readBoolean()) {
+               String text = in.readUTF();
+               writing = new Writing(text, in.readInt());
+            }
+            entries.put(roomId, new Entry(connections, writing));
+         }
+         return entries;
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Saves every resolved room of a maze, replacing anything previously
+    * cached for it.
+    * @param startRoomId The start room id of the maze.
+    * @param rooms The maze's rooms. Rooms with neither connections nor
+    *              writing are skipped.
+    * @throws IOException
+    */
+   public void save(
+       @NonNull String startRoomId,
+       @NonNull Collection<Room> rooms)
+       throws IOException {
+      save(startRoomId, rooms, null);
+   }
+
+   /**
+    * Saves every resolved room of a maze, including rooms that were
+    * spilled to disk, replacing anything previously cached for it.
+    * @param startRoomId The start room id of the maze.
+    * @param rooms The maze's rooms still in memory. Rooms with neither
+    *              connections nor writing are skipped.
+    * @param spill The rooms spilled to disk, or null if none were.
+    * @throws IOException
+    */
+   public void save(
+       @NonNull String startRoomId,
+       @NonNull Collection<Room> rooms,
+       RoomSpill spill)
+       throws IOException {
+      if (!mDir.isDirectory() && !mDir.mkdirs()) {
+         throw new IOException("Unable to create " + mDir);
+      }
+
+      List<Room> resolved = new ArrayList<>(rooms.size());
+      for (Room room : rooms) {
+         if (room.hasConnections() || room.hasWriting()) {
+            resolved.add(room);
+         }
+      }
+
+      File temp = getFile(startRoomId, TEMP_EXTENSION);
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+         out.writeInt(VERSION);
+         int spilled = (spill == null ? 0 : spill.getCount());
+         out.writeInt(resolved.size() + spilled);
+         for (Room room : resolved) {
+            writeEntry(out, room);
+         }
+         if (spill != null) {
+            spill.copyTo(out);
+         }
+      } finally {
+         out.close();
+      }
+
+      if (!temp.renameTo(getFile(startRoomId, CACHE_EXTENSION))) {
+         throw new IOException("Unable to save cache for " + startRoomId);
+      }
+   }
+
+   /**
+    * Removes the cached maze with the given start room (i.e. because it
+    * failed validation).
+    * @param startRoomId The start room id of the maze.
+    */
+   public void invalidate(@NonNull String startRoomId) {
+      //noinspection ResultOfMethodCallIgnored
+      getFile(startRoomId, CACHE_EXTENSION).delete();
+   }
+
+   /**
+    * Writes a single room in the cache's record format.
+    * @param out The stream to write to.
+    * @param room The room, which must not be compacted.
+    * @throws IOException
+    */
+   static void writeEntry(DataOutputStream out, Room room)
+       throws IOException {
+      List<String> connections = room.getConnectionIds();
+      Writing writing = room.getWriting();
+      out.writeUTF(room.getId());
+      out.writeBoolean(connections != null);
+      if (connections != null) {
+         out.writeInt(connections.size());
+         for (String connection : connections) {
+            out.writeUTF(connection);
+         }
+      }
+      out.writeBoolean(writing != null);
+      if (writing != null) {
+         out.writeUTF(writing.getText());
+         out.writeInt(writing.getOrder());
+      }
+   }
+
+   private File getFile(String startRoomId, String extension) {
+      // Room ids are opaque, so keep only characters that are safe
+      // in a file name.
+      return new File(
+          mDir,
+          startRoomId.replaceAll("[^A-Za-z0-9_-]", "_") + extension);
+   }
+
+   /**
+    * The cached data of a single room.
+    */
+   public static class Entry {
+
+      private final List<String> mConnections;
+
+      private final Writing mWriting;
+
+      private Entry(List<String> connections, Writing writing) {
+         mConnections = connections;
+         mWriting = writing;
+      }
+
+      /**
+       * Returns the ids of the connecting rooms, or null if the room's
+       * connections weren't cached.
+       * @return The connecting room ids.
+       */
+      public List<String> getConnections() {
+         return mConnections;
+      }
+
+      /**
+       * Returns the room's writing, or null if it wasn't cached.
+       * @return The room's writing.
+       */
+      public Writing getWriting() {
+         return mWriting;
+      }
+   }
+}
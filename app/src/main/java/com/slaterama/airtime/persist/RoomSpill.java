@@ -0,0 +1,117 @@
+package com.slaterama.airtime.persist;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.model.Room;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+/**
+ * An append-only file of rooms that were dropped from memory to keep a
+ * large exploration within its memory budget. Rooms are written in the
+ * {@link RoomCache} record format, so that the spilled rooms can be copied
+ * straight into the room cache once exploration completes.
+ */
+public class RoomSpill {
+
+   private static final String SPILL_FILE = "spill.bin";
+
+   private static final int COPY_BUFFER_SIZE = 8192;
+
+   /**
+    * The spill file.
+    */
+   @NonNull
+   private final File mFile;
+
+   /**
+    * The stream rooms are appended to, or null if nothing has been spilled.
+    */
+   private DataOutputStream mOut;
+
+   /**
+    * The number of rooms spilled.
+    */
+   private int mCount;
+
+   public RoomSpill(@NonNull File dir) {
+      mFile = new File(dir, SPILL_FILE);
+   }
+
+   /**
+    * Returns the number of rooms spilled.
+    * @return The number of rooms.
+    */
+   public int getCount() {
+      return mCount;
+   }
+
+   /**
+    * Appends rooms to the spill file and flushes them to disk. This must
+    * be called before the rooms are compacted, and they should only be
+    * compacted if it succeeds.
+    * @param rooms The rooms.
+    * @throws IOException
+    */
+   public void appendAll(@NonNull Collection<Room> rooms) throws IOException {
+      if (rooms.isEmpty()) {
+         return;
+      }
+      if (mOut == null) {
+         mOut = new DataOutputStream(new BufferedOutputStream(
+             new FileOutputStream(mFile, false)));
+      }
+      for (Room room : rooms) {
+         RoomCache.writeEntry(mOut, room);
+      }
+      mOut.flush();
+      mCount += rooms.size();
+   }
+
+   /**
+    * Copies every spilled room to the given stream.
+    * @param out The stream to copy to.
+    * @throws IOException
+    */
+   void copyTo(@NonNull DataOutputStream out) throws IOException {
+      if (mOut == null) {
+         return;
+      }
+      mOut.flush();
+      InputStream in = new BufferedInputStream(new FileInputStream(mFile));
+      try {
+         byte[] buffer = new byte[COPY_BUFFER_SIZE];
+         int read;
+         while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+         }
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Closes the spill file and deletes it from disk.
+    */
+   public void clear() {
+      if (mOut != null) {
+         try {
+            mOut.close();
+         } catch (IOException e) {
+            // Ignore; we're deleting it anyway
+         }
+         mOut = null;
+      }
+      mCount = 0;
+      //noinspection ResultOfMethodCallIgnored
+      mFile.delete();
+   }
+}
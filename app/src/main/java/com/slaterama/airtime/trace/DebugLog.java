@@ -0,0 +1,179 @@
+package com.slaterama.airtime.trace;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.slaterama.airtime.BuildConfig;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thin facade over {@link Log} for diagnostics on hot paths. Messages
+ * are given as a format string plus arguments, and are only formatted
+ * (i.e. the arguments' toString() methods are only called) if the level
+ * is enabled. Fixed-arity overloads avoid allocating a varargs array when
+ * logging is off. Messages that are expensive to build can be given as a
+ * {@link Message}, which is only asked for its text if the level is enabled.
+ * High-volume events can go through a {@link Sampler}, which only logs one
+ * in every N events.
+ * <p>
+ * Debug logging is on in debug builds and off in release builds.
+ */
+public final class DebugLog {
+
+   /**
+    * The lowest level (one of the {@link Log} constants) that is logged.
+    */
+   private static volatile int sLevel =
+       BuildConfig.DEBUG ? Log.DEBUG : Log.WARN;
+
+   private DebugLog() {
+   }
+
+   /**
+    * Sets the lowest level that is logged.
+    * @param level One of the {@link Log} level constants.
+    */
+   public static void setLevel(int level) {
+      sLevel = level;
+   }
+
+   /**
+    * Returns whether messages at the given level are logged.
+    * @param level One of the {@link Log} level constants.
+    * @return Whether the level is enabled.
+    */
+   public static boolean isLoggable(int level) {
+      return level >= sLevel;
+   }
+
+   public static void d(@NonNull String tag, @NonNull String message) {
+      if (isLoggable(Log.DEBUG)) {
+         Log.d(tag, message);
+      }
+   }
+
+   public static void d(@NonNull String tag, @NonNull Message message) {
+      if (isLoggable(Log.DEBUG)) {
+         Log.d(tag, message.get());
+      }
+   }
+
+   public static void d(
+       @NonNull String tag,
+       @NonNull String format,
+       Object arg) {
+      if (isLoggable(Log.DEBUG)) {
+         Log.d(tag, String.format(Locale.US, format, arg));
+      }
+   }
+
+   public static void d(
+       @NonNull String tag,
+       @NonNull String format,
+       Object arg1,
+       Object arg2) {
+      if (isLoggable(Log.DEBUG)) {
+         Log.d(tag, String.format(Locale.US, format, arg1, arg2));
+      }
+   }
+
+   public static void w(@NonNull String tag, @NonNull String message) {
+      if (isLoggable(Log.WARN)) {
+         Log.w(tag, message);
+      }
+   }
+
+   public static void w(
+       @NonNull String tag,
+       @NonNull String format,
+       Object arg) {
+      if (isLoggable(Log.WARN)) {
+         Log.w(tag, String.format(Locale.US, format, arg));
+      }
+   }
+
+   public static void w(
+       @NonNull String tag,
+       @NonNull String message,
+       Throwable throwable) {
+      if (isLoggable(Log.WARN)) {
+         Log.w(tag, message, throwable);
+      }
+   }
+
+   public static void e(@NonNull String tag, @NonNull String message) {
+      if (isLoggable(Log.ERROR)) {
+         Log.e(tag, message);
+      }
+   }
+
+   public static void e(
+       @NonNull String tag,
+       @NonNull String format,
+       Object arg) {
+      if (isLoggable(Log.ERROR)) {
+         Log.e(tag, String.format(Locale.US, format, arg));
+      }
+   }
+
+   public static void e(
+       @NonNull String tag,
+       @NonNull String message,
+       Throwable throwable) {
+      if (isLoggable(Log.ERROR)) {
+         Log.e(tag, message, throwable);
+      }
+   }
+
+   /**
+    * Supplies the text of a log message that is expensive to build.
+    */
+   public interface Message {
+
+      /**
+       * Builds the message. Only called if the message will be logged.
+       * @return The message text.
+       */
+      @NonNull
+      String get();
+   }
+
+   /**
+    * Logs only one in every N events it is given, so that a high-volume
+    * event can be watched without flooding the log.
+    */
+   public static class Sampler {
+
+      /**
+       * Log one in every this many events.
+       */
+      private final int mEvery;
+
+      /**
+       * The number of events seen so far.
+       */
+      @NonNull
+      private final AtomicLong mCount;
+
+      public Sampler(int every) {
+         mEvery = Math.max(every, 1);
+         mCount = new AtomicLong();
+      }
+
+      public void d(
+          @NonNull String tag,
+          @NonNull String format,
+          Object arg) {
+         if (isLoggable(Log.DEBUG) && sample()) {
+            Log.d(tag, String.format(Locale.US, format, arg)
+                + " [1 of " + mEvery + "]");
+         }
+      }
+
+      private boolean sample() {
+         return mCount.getAndIncrement() % mEvery == 0;
+      }
+   }
+}
@@ -0,0 +1,384 @@
+package com.slaterama.airtime.trace;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.model.Command;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact, binary, append-only log of everything that happens during an
+ * exploration session. Each event is stamped with {@link System#nanoTime()}
+ * and buffered in a direct {@link ByteBuffer} that is written to a
+ * {@link FileChannel} whenever it fills up.
+ * <p>
+ * Logging never throws; if the log can't be written it logs a warning
+ * once and silently drops any further events.
+ */
+public class EventLog {
+
+   private static final String TAG = EventLog.class.getSimpleName();
+
+   private static final String UTF_8 = "UTF-8";
+
+   private static final int MAGIC = 0x47414e59;
+   private static final int VERSION = 1;
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   public static final byte EVENT_COMMANDS_SENT = 1;
+   public static final byte EVENT_RESULT_RECEIVED = 2;
+   public static final byte EVENT_ROOM_CLAIMED = 3;
+   public static final byte EVENT_DRONE_BLOCKED = 4;
+   public static final byte EVENT_DRONE_UNBLOCKED = 5;
+
+   public static final byte REQUEST_START = 1;
+   public static final byte REQUEST_COMMANDS = 2;
+   public static final byte REQUEST_REPORT = 3;
+
+   /**
+    * Reads every event in the given log.
+    * @param file The log file.
+    * @return The events, in the order they were logged. A trailing event
+    * cut short by a crash is dropped.
+    * @throws IOException
+    */
+   @NonNull
+   public static List<Event> read(@NonNull File file) throws IOException {
+      FileInputStream in = new FileInputStream(file);
+      try {
+         FileChannel channel = in.getChannel();
+         ByteBuffer buffer = channel.map(
+             FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         if (buffer.remaining() < 8
+             || buffer.getInt() != MAGIC
+             || buffer.getInt() != VERSION) {
+            throw new IOException("Not an event log: " + file);
+         }
+
+         List<Event> events = new ArrayList<>();
+         while (buffer.hasRemaining()) {
+            try {
+               events.add(readEvent(buffer));
+            } catch (BufferUnderflowException e) {
+               break;
+            }
+         }
+         return events;
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * The channel events are written to, or null once the log is closed.
+    */
+   private FileChannel mChannel;
+
+   /**
+    * Events are staged here until the buffer fills up.
+    */
+   @NonNull
+   private final ByteBuffer mBuffer;
+
+   public EventLog(@NonNull File file) throws IOException {
+      mChannel = new FileOutputStream(file).getChannel();
+      mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      mBuffer.putInt(MAGIC);
+      mBuffer.putInt(VERSION);
+   }
+
+   /**
+    * Logs a batch of commands sent on behalf of a drone.
+    * @param droneId The drone id.
+    * @param commands The commands.
+    */
+   public synchronized void commandsSent(
+       @NonNull String droneId,
+       @NonNull List<Command> commands) {
+      if (begin(EVENT_COMMANDS_SENT)) {
+         putString(droneId);
+         ensure(4);
+         mBuffer.putInt(commands.size());
+         for (Command command : commands) {
+            putString(command.getCommandId());
+         }
+      }
+   }
+
+   /**
+    * Logs the raw response to a request.
+    * @param requestType One of the REQUEST_ constants.
+    * @param droneId The drone the request was sent for, if any.
+    * @param raw The raw response.
+    * @param latencyNanos How long the request took, in nanoseconds.
+    */
+   public synchronized void resultReceived(
+       byte requestType,
+       String droneId,
+       @NonNull RawResponse raw,
+       long latencyNanos) {
+      if (begin(EVENT_RESULT_RECEIVED)) {
+         ensure(1 + 4 + 8);
+         mBuffer.put(requestType);
+         mBuffer.putInt(raw.getResponseCode());
+         mBuffer.putLong(latencyNanos);
+         putString(droneId);
+         putString(raw.getBody());
+      }
+   }
+
+   /**
+    * Logs a drone claiming a room, i.e. queuing the commands to resolve it.
+    * @param droneId The drone id.
+    * @param roomId The room id.
+    */
+   public synchronized void roomClaimed(
+       @NonNull String droneId,
+       @NonNull String roomId) {
+      if (begin(EVENT_ROOM_CLAIMED)) {
+         putString(droneId);
+         putString(roomId);
+      }
+   }
+
+   /**
+    * Logs a drone blocking to wait for results.
+    * @param droneId The drone id.
+    */
+   public synchronized void droneBlocked(@NonNull String droneId) {
+      if (begin(EVENT_DRONE_BLOCKED)) {
+         putString(droneId);
+      }
+   }
+
+   /**
+    * Logs a drone waking up after waiting for results.
+    * @param droneId The drone id.
+    */
+   public synchronized void droneUnblocked(@NonNull String droneId) {
+      if (begin(EVENT_DRONE_UNBLOCKED)) {
+         putString(droneId);
+      }
+   }
+
+   /**
+    * Writes any buffered events to disk.
+    */
+   public synchronized void flush() {
+      if (mChannel == null) {
+         mBuffer.clear();
+         return;
+      }
+      try {
+         mBuffer.flip();
+         while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+         }
+         mBuffer.clear();
+      } catch (IOException e) {
+         fail(e);
+      }
+   }
+
+   /**
+    * Writes any buffered events to disk and closes the log.
+    */
+   public synchronized void close() {
+      flush();
+      if (mChannel != null) {
+         try {
+            mChannel.close();
+         } catch (IOException e) {
+            fail(e);
+         }
+         mChannel = null;
+      }
+   }
+
+   private boolean begin(byte type) {
+      if (mChannel == null) {
+         return false;
+      }
+      ensure(1 + 8);
+      mBuffer.put(type);
+      mBuffer.putLong(System.nanoTime());
+      return true;
+   }
+
+   private void ensure(int length) {
+      if (mBuffer.remaining() < length) {
+         flush();
+      }
+   }
+
+   private void putString(String string) {
+      if (string == null) {
+         ensure(4);
+         mBuffer.putInt(-1);
+         return;
+      }
+
+      byte[] bytes;
+      try {
+         bytes = string.getBytes(UTF_8);
+      } catch (UnsupportedEncodingException e) {
+         throw new AssertionError(e);
+      }
+      ensure(4);
+      mBuffer.putInt(bytes.length);
+      if (bytes.length <= mBuffer.capacity()) {
+         ensure(bytes.length);
+         mBuffer.put(bytes);
+      } else if (mChannel != null) {
+         // Too large to stage; write it straight through
+         flush();
+         try {
+            ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+            while (wrapped.hasRemaining()) {
+               mChannel.write(wrapped);
+            }
+         } catch (IOException e) {
+            fail(e);
+         }
+      }
+   }
+
+   private void fail(IOException e) {
+      DebugLog.w(TAG, "Unable to write event log; disabling it", e);
+      try {
+         if (mChannel != null) {
+            mChannel.close();
+         }
+      } catch (IOException ignored) {
+         // We're already giving up on the log
+      }
+      mChannel = null;
+      mBuffer.clear();
+   }
+
+   private static Event readEvent(ByteBuffer buffer) {
+      Event event = new Event(buffer.get(), buffer.getLong());
+      switch (event.mType) {
+         case EVENT_COMMANDS_SENT: {
+            event.mDroneId = getString(buffer);
+            int count = buffer.getInt();
+            List<String> commandIds = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+               commandIds.add(getString(buffer));
+            }
+            event.mCommandIds = Collections.unmodifiableList(commandIds);
+            break;
+         }
+         case EVENT_RESULT_RECEIVED:
+            event.mRequestType = buffer.get();
+            event.mResponseCode = buffer.getInt();
+            event.mLatencyNanos = buffer.getLong();
+            event.mDroneId = getString(buffer);
+            event.mBody = getString(buffer);
+            break;
+         case EVENT_ROOM_CLAIMED:
+            event.mDroneId = getString(buffer);
+            event.mRoomId = getString(buffer);
+            break;
+         case EVENT_DRONE_BLOCKED:
+         case EVENT_DRONE_UNBLOCKED:
+            event.mDroneId = getString(buffer);
+            break;
+         default:
+            throw new BufferUnderflowException();
+      }
+      return event;
+   }
+
+   private static String getString(ByteBuffer buffer) {
+      int length = buffer.getInt();
+      if (length < 0) {
+         return null;
+      }
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      try {
+         return new String(bytes, UTF_8);
+      } catch (UnsupportedEncodingException e) {
+         throw new AssertionError(e);
+      }
+   }
+
+   /**
+    * A single event read back from an event log. Which fields are set
+    * depends on the event type.
+    */
+   public static class Event {
+
+      private final byte mType;
+
+      private final long mTimestampNanos;
+
+      private String mDroneId;
+
+      private String mRoomId;
+
+      private List<String> mCommandIds;
+
+      private byte mRequestType;
+
+      private int mResponseCode;
+
+      private long mLatencyNanos;
+
+      private String mBody;
+
+      private Event(byte type, long timestampNanos) {
+         mType = type;
+         mTimestampNanos = timestampNanos;
+      }
+
+      public byte getType() {
+         return mType;
+      }
+
+      public long getTimestampNanos() {
+         return mTimestampNanos;
+      }
+
+      public String getDroneId() {
+         return mDroneId;
+      }
+
+      public String getRoomId() {
+         return mRoomId;
+      }
+
+      public List<String> getCommandIds() {
+         return mCommandIds;
+      }
+
+      public byte getRequestType() {
+         return mRequestType;
+      }
+
+      public int getResponseCode() {
+         return mResponseCode;
+      }
+
+      public long getLatencyNanos() {
+         return mLatencyNanos;
+      }
+
+      public String getBody() {
+         return mBody;
+      }
+   }
+}
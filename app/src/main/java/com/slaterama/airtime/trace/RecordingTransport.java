@@ -0,0 +1,63 @@
+package com.slaterama.airtime.trace;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.request.CommandsRequest;
+import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.request.ReportRequest;
+import com.slaterama.airtime.http.request.StartRequest;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * A {@link Transport} that records every raw response it receives to an
+ * {@link EventLog}, so that the session can later be replayed with a
+ * {@link ReplayTransport}.
+ */
+public class RecordingTransport implements Transport {
+
+   /**
+    * The transport that actually sends the requests.
+    */
+   @NonNull
+   private final Transport mTransport;
+
+   /**
+    * The log that responses are recorded to.
+    */
+   @NonNull
+   private final EventLog mEventLog;
+
+   public RecordingTransport(
+       @NonNull Transport transport,
+       @NonNull EventLog eventLog) {
+      mTransport = transport;
+      mEventLog = eventLog;
+   }
+
+   @NonNull
+   @Override
+   public RawResponse send(@NonNull HttpRequest request)
+       throws IOException, JSONException {
+      long startTime = System.nanoTime();
+      RawResponse raw = mTransport.send(request);
+      long latency = System.nanoTime() - startTime;
+
+      if (request instanceof CommandsRequest) {
+         mEventLog.resultReceived(
+             EventLog.REQUEST_COMMANDS,
+             ((CommandsRequest) request).getDrone().getId(),
+             raw,
+             latency);
+      } else if (request instanceof StartRequest) {
+         mEventLog.resultReceived(EventLog.REQUEST_START, null, raw, latency);
+      } else if (request instanceof ReportRequest) {
+         mEventLog.resultReceived(EventLog.REQUEST_REPORT, null, raw, latency);
+      }
+      return raw;
+   }
+}
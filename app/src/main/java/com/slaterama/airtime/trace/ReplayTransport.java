@@ -0,0 +1,119 @@
+package com.slaterama.airtime.trace;
+
+import android.support.annotation.NonNull;
+
+import com.slaterama.airtime.http.RawResponse;
+import com.slaterama.airtime.http.Transport;
+import com.slaterama.airtime.http.request.CommandsRequest;
+import com.slaterama.airtime.http.request.HttpRequest;
+import com.slaterama.airtime.http.request.ReportRequest;
+import com.slaterama.airtime.http.request.StartRequest;
+import com.slaterama.airtime.model.Command;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Transport} that answers requests from a recorded
+ * {@link EventLog} instead of the network.
+ * <p>
+ * "Commands" results are indexed by command name and room id rather than
+ * by drone or request, so a replayed session gets the same answer for a
+ * room no matter which drone asks for it or in which order.
+ */
+public class ReplayTransport implements Transport {
+
+   /**
+    * The recorded response to the "start" request.
+    */
+   private RawResponse mStartResponse;
+
+   /**
+    * The recorded response to the "report" request.
+    */
+   private RawResponse mReportResponse;
+
+   /**
+    * The recorded result of each command, keyed by command name and room
+    * id.
+    */
+   @NonNull
+   private final Map<String, JSONObject> mResults;
+
+   public ReplayTransport(@NonNull List<EventLog.Event> events)
+       throws JSONException {
+      mResults = new HashMap<>();
+      for (EventLog.Event event : events) {
+         if (event.getType() != EventLog.EVENT_RESULT_RECEIVED) {
+            continue;
+         }
+         RawResponse raw =
+             new RawResponse(event.getResponseCode(), event.getBody());
+         switch (event.getRequestType()) {
+            case EventLog.REQUEST_START:
+               mStartResponse = raw;
+               break;
+            case EventLog.REQUEST_REPORT:
+               mReportResponse = raw;
+               break;
+            case EventLog.REQUEST_COMMANDS:
+               if (raw.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                  indexResults(new JSONObject(raw.getBody()));
+               }
+               break;
+         }
+      }
+   }
+
+   @NonNull
+   @Override
+   public RawResponse send(@NonNull HttpRequest request)
+       throws IOException, JSONException {
+      if (request instanceof StartRequest) {
+         return require(mStartResponse, "start");
+      } else if (request instanceof ReportRequest) {
+         return require(mReportResponse, "report");
+      } else if (request instanceof CommandsRequest) {
+         JSONObject obj = new JSONObject();
+         for (Command command : ((CommandsRequest) request).getCommands()) {
+            JSONObject result = mResults.get(getKey(command));
+            if (result == null) {
+               throw new IOException("No recorded result for " + command);
+            }
+            obj.put(command.getCommandId(), result);
+         }
+         return new RawResponse(HttpURLConnection.HTTP_OK, obj.toString());
+      }
+      throw new IOException("Can't replay " + request);
+   }
+
+   private void indexResults(JSONObject obj) throws JSONException {
+      Iterator<String> keys = obj.keys();
+      while (keys.hasNext()) {
+         String commandId = keys.next();
+         Command command = Command.fromCommandId(commandId);
+         if (command != null) {
+            mResults.put(getKey(command), obj.getJSONObject(commandId));
+         }
+      }
+   }
+
+   private static String getKey(Command command) {
+      return command.getName() + ':' + command.getRoomId();
+   }
+
+   private static RawResponse require(RawResponse raw, String name)
+       throws IOException {
+      if (raw == null) {
+         throw new IOException("No recorded " + name + " response");
+      }
+      return raw;
+   }
+}
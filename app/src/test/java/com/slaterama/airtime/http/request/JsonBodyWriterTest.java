@@ -0,0 +1,90 @@
+package com.slaterama.airtime.http.request;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encodes bodies with a {@link JsonBodyWriter} and parses them back with
+ * org.json, checking that every string survives the round trip.
+ */
+public class JsonBodyWriterTest {
+
+   @Test
+   public void roundTripsPlainText() throws Exception {
+      assertRoundTrips("commands");
+   }
+
+   @Test
+   public void roundTripsQuotesAndBackslashes() throws Exception {
+      assertRoundTrips("say \"hi\" \\ \\\" \"\\");
+   }
+
+   @Test
+   public void roundTripsControlCharacters() throws Exception {
+      assertRoundTrips("a\nb\rc\td\u0000e\u0001f\u001fg\bh\fi");
+   }
+
+   @Test
+   public void roundTripsNonAscii() throws Exception {
+      assertRoundTrips("caf\u00e9 \u00fc\u00df \u4e16\u754c \u20ac");
+   }
+
+   @Test
+   public void roundTripsSurrogatePairs() throws Exception {
+      assertRoundTrips("\ud83d\ude00 \ud834\udd1e");
+   }
+
+   @Test
+   public void replacesLoneSurrogates() throws Exception {
+      assertEquals("a\ufffdb", roundTrip("a\ud83db"));
+      assertEquals("a\ufffdb", roundTrip("a\ude00b"));
+      assertEquals("\ufffd", roundTrip("\ud83d"));
+      assertEquals("\ufffd\ufffd", roundTrip("\ude00\ud83d"));
+   }
+
+   @Test
+   public void roundTripsNamesAndValueParts() throws Exception {
+      JsonBodyWriter writer = JsonBodyWriter.obtain()
+          .beginObject()
+          .name("first \"one\"").value("1")
+          .name("second\n").beginValue()
+          .valuePart("\u00e9")
+          .valuePart("\\")
+          .valuePart("\ud83d\ude00")
+          .endValue()
+          .endObject();
+      JSONObject obj = new JSONObject(decode(writer));
+      assertEquals(2, obj.length());
+      assertEquals("1", obj.getString("first \"one\""));
+      assertEquals("\u00e9\\\ud83d\ude00", obj.getString("second\n"));
+   }
+
+   @Test
+   public void reusesWriter() throws Exception {
+      assertEquals("long value", roundTrip("long value"));
+      assertEquals("x", roundTrip("x"));
+   }
+
+   private static void assertRoundTrips(String value) throws Exception {
+      assertEquals(value, roundTrip(value));
+   }
+
+   private static String roundTrip(String value) throws Exception {
+      JsonBodyWriter writer = JsonBodyWriter.obtain()
+          .beginObject()
+          .name("value").value(value)
+          .endObject();
+      return new JSONObject(decode(writer)).getString("value");
+   }
+
+   private static String decode(JsonBodyWriter writer) throws Exception {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      writer.writeTo(out);
+      assertEquals(writer.length(), out.size());
+      return new String(out.toByteArray(), "UTF-8");
+   }
+}